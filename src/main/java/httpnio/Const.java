@@ -4,6 +4,8 @@ public interface Const {
     String HTTPC = "httpc";
     String HTTPFS = "httpfs";
     String CRLF = "\r\n";
+    String HTTP_1_0 = "HTTP/1.0";
+    String HTTP_1_1 = "HTTP/1.1";
     int DEFAULT_PORT = 80;
     int DEFAULT_SERVER_PORT = 8080;
     int DEFAULT_ROUTER_PORT = 3000;
@@ -12,12 +14,30 @@ public interface Const {
     String DEFAULT_ROUTER_ADDRESS = DEFAULT_ROUTER_HOST + ":" + DEFAULT_ROUTER_POST;
     int TIMEOUT_LIMIT_SECONDS = 1000000000;
     int DEFAULT_THREAD_POOL_SIZE = 2;
+    int DEFAULT_READ_BUFFER_SIZE = 8192;
+    int DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+    int DEFAULT_MAX_CONNECTIONS = 10000;
+    int DEFAULT_MAX_CONNECTIONS_PER_PEER = 256;
+    int DEFAULT_CACHE_SIZE_MB = 64;
+    int DEFAULT_DISK_THREADS = 16;
+    int DEFAULT_COMMIT_WINDOW_MICROS = 1000;
 
     interface Headers {
         String CONTENT_TYPE = "Content-Type";
         String CONTENT_LENGTH = "Content-Length";
         String CONNECTION = "Connection";
         String HOST = "Host";
+        String RANGE = "Range";
+        String CONTENT_RANGE = "Content-Range";
+        String ACCEPT_RANGES = "Accept-Ranges";
+        String ETAG = "ETag";
+        String LAST_MODIFIED = "Last-Modified";
+        String IF_NONE_MATCH = "If-None-Match";
+        String IF_MODIFIED_SINCE = "If-Modified-Since";
+        String ACCEPT_ENCODING = "Accept-Encoding";
+        String CONTENT_ENCODING = "Content-Encoding";
+        String VARY = "Vary";
+        String TRANSFER_ENCODING = "Transfer-Encoding";
         String APPLICATION_JSON = "application/json";
         String APPLICATION_X_WWW_FORM_URLENCODED = "application/x-www-form-urlencoded";
     }
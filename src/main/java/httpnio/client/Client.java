@@ -8,21 +8,19 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.Selector;
 import java.util.List;
-import java.util.Objects;
-import java.util.Scanner;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
 
 import static httpnio.common.Packet.State.*;
 import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Slf4j
 public class Client {
@@ -88,39 +86,36 @@ public class Client {
         }
 
         private HTTPResponse callHelper(final HTTPRequest request) throws IOException {
-            final StringBuilder message = new StringBuilder();
-
             try (final Socket socket = new Socket(request.host(), request.url().port());
-                 final PrintWriter writer = new PrintWriter(socket.getOutputStream());
-                 final Scanner reader = new Scanner(new InputStreamReader(socket.getInputStream()))) {
+                 final OutputStream writer = socket.getOutputStream();
+                 final InputStream in = socket.getInputStream()) {
 
                 log.debug(request.toString());
-                writer.print(request.toString());
+                writer.write(request.bytes());
                 writer.flush();
 
-                while (reader.hasNextLine()) {
-                    final String line = reader.nextLine();
-                    message.append(String.format("%s%s", line, Const.CRLF));
+                final HTTPResponseReader reader = new HTTPResponseReader(in);
+                if (!reader.readHead()) {
+                    throw new IOException("connection closed before a response was received");
                 }
 
-                final var responseAttempt = HTTPResponse.of(request, message.toString());
-                HTTPResponse response = responseAttempt.isLeft() ? responseAttempt.getLeft() : null;
+                final HTTPResponse response = reader.response(request);
+                final var isValid = response.valid();
+                if (isValid.isRight()) {
+                    throw new IOException(isValid.get());
+                }
 
-                if (response != null && response.statusCode() != null && response.statusCode().matches("3\\d+")) {
+                if (response.statusCode().matches("3\\d+")) {
                     final String location = response.headers().get("Location");
                     final InetLocation redirectInetLocation = Try.of(() -> InetLocation.fromSpec(location))
                         .getOrElse(() ->
                             Try.of(() -> request.url().toBuilder().path(location).build())
                                 .getOrElse(() -> null));
 
-                    response = callHelper(request.toBuilder().inetLocation(redirectInetLocation).build());
+                    return callHelper(request.toBuilder().inetLocation(redirectInetLocation).build());
                 }
 
-                if (responseAttempt.isRight()) {
-                    throw new IOException(responseAttempt.get());
-                } else {
-                    return response;
-                }
+                return response;
             }
         }
     }
@@ -157,7 +152,7 @@ public class Client {
         public HTTPResponse call() {
             try {
                 if (handshake()) {
-                    final var buffers = PacketUtil.split(request.toString().getBytes());
+                    final var buffers = PacketUtil.split(request.bytes());
                     final Packet[] packets = new Packet[buffers.length];
                     for (int i = 0; i < buffers.length; i++) {
                         packets[i] = Packet.builder()
@@ -291,10 +286,7 @@ public class Client {
 
         @Override
         public <T> T make(final List<Packet> packets) {
-            final var combinedPayload = packets.stream()
-                .filter(Objects::nonNull)
-                .map(Packet::payload)
-                .collect(Collectors.joining(""));
+            final var combinedPayload = PacketUtil.join(packets);
 
             try {
                 final var response = HTTPResponse.of(request, combinedPayload);
@@ -302,13 +294,13 @@ public class Client {
                     log.info("response successfully created");
                     return (T) response.getLeft();
                 } else {
-                    log.info("response={}", combinedPayload.length() > 0 ? "\n" + combinedPayload : "");
+                    log.info("response={}", combinedPayload.length > 0 ? "\n" + new String(combinedPayload, UTF_8) : "");
                     log.error("response invalid: {}", response.get());
                     return null;
                 }
             } catch (final Exception e) {
                 log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
-                log.debug("response={}", combinedPayload.length() > 0 ? "\n" + combinedPayload : "");
+                log.debug("response={}", combinedPayload.length > 0 ? "\n" + new String(combinedPayload, UTF_8) : "");
                 return null;
             }
         }
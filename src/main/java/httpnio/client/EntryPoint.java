@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 @NoArgsConstructor
@@ -135,15 +136,19 @@ public class EntryPoint {
                                 whatToPrint += response != null && response.request() != null ? response.request() + "\n" : "";
                                 whatToPrint += response != null && response.request() != null ? response.messageHeader() : "\n\n";
                             }
-                            whatToPrint += response != null && response.request() != null ? "\n\n" + response.body() : "\n";
                             if (success.get().out != null && response != null) {
-                                var whatToPrintInBytes = whatToPrint.getBytes();
+                                // The body is saved as received, so binary responses survive
+                                final var head = (whatToPrint + (response.request() != null ? "\n\n" : "\n")).getBytes();
+                                final var body = response.request() != null && response.body() != null ? response.body() : new byte[0];
+                                final var whatToPrintInBytes = Arrays.copyOf(head, head.length + body.length);
+                                System.arraycopy(body, 0, whatToPrintInBytes, head.length, body.length);
                                 Try.of(() -> Files.write(Paths.get(success.get().out), whatToPrintInBytes))
                                     .onSuccess(nothing -> System.out.println("Output saved in " + success.get().out))
                                     .onFailure(failure -> System.out.println(
                                         "Something went wrong trying to save the contents of the response to the file. " + failure.getClass()
                                             .getSimpleName() + ": " + failure.getMessage()));
                             } else {
+                                whatToPrint += response != null && response.request() != null ? "\n\n" + response.text() : "\n";
                                 System.out.println(whatToPrint);
                             }
                         })
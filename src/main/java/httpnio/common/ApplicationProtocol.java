@@ -1,13 +1,18 @@
 package httpnio.common;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface ApplicationProtocol {
     enum Type {
-        FILESERVER;
+        FILESERVER,
+        ARCHIVE;
 
         public static Type of(final String name) {
             switch (name) {
+                case "ARCHIVE":
+                case "archive":
+                    return ARCHIVE;
                 case "FILESERVER":
                 case "fileserver":
                 case "FS":
@@ -20,6 +25,43 @@ public interface ApplicationProtocol {
 
     interface Response extends ApplicationProtocol {
         HTTPResponse response(HTTPRequest request) throws IOException;
+
+        /**
+         * Streaming alternative to {@link #response(HTTPRequest)} for request bodies, called once the headers are
+         * parsed. Returning null means the body should be buffered and passed to {@link #response(HTTPRequest)}.
+         */
+        default Upload upload(final HTTPRequest request) throws IOException {
+            return null;
+        }
+    }
+
+    interface Upload {
+        void write(ByteBuffer chunk) throws IOException;
+
+        HTTPResponse complete() throws IOException;
+
+        void abort();
+
+        /**
+         * Consumes and drops the body, answering with the given response once it has been read entirely.
+         */
+        static Upload discarding(final HTTPResponse response) {
+            return new Upload() {
+                @Override
+                public void write(final ByteBuffer chunk) {
+                    chunk.position(chunk.limit());
+                }
+
+                @Override
+                public HTTPResponse complete() {
+                    return response;
+                }
+
+                @Override
+                public void abort() {
+                }
+            };
+        }
     }
 
     ApplicationProtocol copy() throws IllegalAccessException, IOException;
@@ -0,0 +1,106 @@
+package httpnio.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inclusive range of byte positions of a representation, as requested with a {@code Range: bytes=...} header.
+ */
+@Getter
+@Accessors(fluent = true)
+@AllArgsConstructor
+public final class ByteRange {
+    private static final String UNIT = "bytes=";
+
+    private static final int MAX_RANGES = 16;
+
+    private final long first;
+
+    private final long last;
+
+    /**
+     * Resolves the ranges of a {@code Range} header against a representation of the given size, dropping the
+     * unsatisfiable ones. Ranges are kept in the order requested.
+     *
+     * @return the satisfiable ranges, empty if there are none, or null if the header is malformed or asks for too many
+     * ranges and should be ignored
+     */
+    public static List<ByteRange> of(final String header, final long size) {
+        if (header == null || !header.regionMatches(true, 0, UNIT, 0, UNIT.length())) {
+            return null;
+        }
+
+        final String[] specs = header.substring(UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        final List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (final String spec : specs) {
+            final String trimmed = spec.trim();
+            final int dash = trimmed.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+
+            final long first = parse(trimmed.substring(0, dash));
+            final long last = parse(trimmed.substring(dash + 1));
+            if (first == -1) {
+                // Suffix range, the last N bytes
+                if (last == -1 || last == -2) {
+                    return null;
+                }
+                if (last > 0 && size > 0) {
+                    ranges.add(new ByteRange(Math.max(0, size - last), size - 1));
+                }
+            } else {
+                if (first == -2 || last == -2 || (last != -1 && last < first)) {
+                    return null;
+                }
+                if (first < size) {
+                    ranges.add(new ByteRange(first, last == -1 ? size - 1 : Math.min(last, size - 1)));
+                }
+            }
+        }
+        return ranges;
+    }
+
+    public long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * Value of the {@code Content-Range} header describing this range.
+     */
+    public String contentRange(final long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+
+    /**
+     * @return the position, -1 if absent or -2 if not a valid position
+     */
+    private static long parse(final String position) {
+        final String trimmed = position.trim();
+        if (trimmed.isEmpty()) {
+            return -1;
+        }
+        if (trimmed.length() > 18) {
+            return -2;
+        }
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (trimmed.charAt(i) < '0' || trimmed.charAt(i) > '9') {
+                return -2;
+            }
+        }
+        return Long.parseLong(trimmed);
+    }
+}
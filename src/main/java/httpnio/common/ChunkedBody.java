@@ -0,0 +1,21 @@
+package httpnio.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Response body produced a piece at a time, for when its length is not known up front. Sent with chunked transfer
+ * encoding, each piece as it is produced.
+ */
+public interface ChunkedBody extends Closeable {
+
+    /**
+     * @return the next non-empty piece of the body, or null once the body is exhausted
+     */
+    ByteBuffer next() throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
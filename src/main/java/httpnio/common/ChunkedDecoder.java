@@ -0,0 +1,143 @@
+package httpnio.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Resumable decoder of a body sent with chunked transfer encoding.
+ * <p>
+ * Each call to {@link #decode(ByteBuffer, OutputStream)} consumes the bytes available, up to the end of the body, and
+ * writes out the data of the chunks found in them, so a body can be decoded as it arrives in as many partial reads as
+ * needed. Chunk extensions and trailer fields are skipped.
+ */
+public final class ChunkedDecoder {
+
+    public enum State {
+        SIZE,
+        DATA,
+        DATA_END,
+        TRAILER,
+        COMPLETE,
+        INVALID
+    }
+
+    private static final int MAX_LINE_SIZE = 8192;
+
+    private final StringBuilder line = new StringBuilder();
+
+    private State state = State.SIZE;
+
+    private long remaining;
+
+    private String error;
+
+    /**
+     * @param in  bytes of the body, consumed up to the end of the body at most
+     * @param out where the data of the chunks is written
+     * @return true once the whole body has been decoded
+     */
+    public boolean decode(final ByteBuffer in, final OutputStream out) throws IOException {
+        while (in.hasRemaining() && state != State.COMPLETE && state != State.INVALID) {
+            if (state == State.DATA) {
+                final int n = (int) Math.min(remaining, in.remaining());
+                if (in.hasArray()) {
+                    out.write(in.array(), in.arrayOffset() + in.position(), n);
+                    in.position(in.position() + n);
+                } else {
+                    final byte[] data = new byte[n];
+                    in.get(data);
+                    out.write(data);
+                }
+                remaining -= n;
+                if (remaining == 0) {
+                    state = State.DATA_END;
+                }
+                continue;
+            }
+
+            final String completed = line(in);
+            if (completed != null) {
+                completed(completed);
+            }
+        }
+        return state == State.COMPLETE;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    public boolean isInvalid() {
+        return state == State.INVALID;
+    }
+
+    public String error() {
+        return error;
+    }
+
+    /**
+     * @return the line ended by the next line feed without its line terminator, or null if the line is not complete
+     * yet
+     */
+    private String line(final ByteBuffer in) {
+        while (in.hasRemaining()) {
+            final char c = (char) (in.get() & 0xff);
+            if (c == '\n') {
+                final int end = line.length() > 0 && line.charAt(line.length() - 1) == '\r' ? line.length() - 1 : line.length();
+                final String completed = line.substring(0, end);
+                line.setLength(0);
+                return completed;
+            }
+            if (line.length() == MAX_LINE_SIZE) {
+                invalid("Chunk line exceeded " + MAX_LINE_SIZE + " bytes");
+                return null;
+            }
+            line.append(c);
+        }
+        return null;
+    }
+
+    private void completed(final String line) {
+        switch (state) {
+            case SIZE:
+                final int extension = line.indexOf(';');
+                final String size = (extension == -1 ? line : line.substring(0, extension)).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (final NumberFormatException e) {
+                    invalid("Invalid chunk size: " + size);
+                    return;
+                }
+                if (remaining < 0) {
+                    invalid("Invalid chunk size: " + size);
+                } else {
+                    state = remaining == 0 ? State.TRAILER : State.DATA;
+                }
+                break;
+            case DATA_END:
+                if (line.isEmpty()) {
+                    state = State.SIZE;
+                } else {
+                    invalid("Missing line break after chunk data");
+                }
+                break;
+            case TRAILER:
+                if (line.isEmpty()) {
+                    state = State.COMPLETE;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void invalid(final String error) {
+        this.error = error;
+        state = State.INVALID;
+    }
+}
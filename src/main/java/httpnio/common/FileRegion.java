@@ -0,0 +1,90 @@
+package httpnio.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+@Getter
+@Accessors(fluent = true)
+@AllArgsConstructor
+public final class FileRegion {
+    private final Path path;
+
+    private final long position;
+
+    private final long count;
+
+    /**
+     * Kept open on the file and shared by every region of it, or null to open the file each time the region is read.
+     */
+    private final FileChannel channel;
+
+    public FileRegion(final Path path, final long position, final long count) {
+        this(path, position, count, null);
+    }
+
+    public static FileRegion of(final Path path) throws IOException {
+        return new FileRegion(path, 0, Files.size(path));
+    }
+
+    /**
+     * @return the part of this region starting at the given offset within it
+     */
+    public FileRegion slice(final long offset, final long length) {
+        return new FileRegion(path, position + offset, length, channel);
+    }
+
+    /**
+     * @return a channel to read the region from, only to be closed by the caller if the region is not shared
+     */
+    public FileChannel open() throws IOException {
+        return channel != null ? channel : FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    public boolean isShared() {
+        return channel != null;
+    }
+
+    public byte[] read() throws IOException {
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("File region too large to be read in memory: " + path);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) count);
+        read(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Reads the region into the buffer, from its position on, which must have room for it.
+     */
+    public void read(final ByteBuffer buffer) throws IOException {
+        final int limit = buffer.limit();
+        buffer.limit(Math.toIntExact(buffer.position() + count));
+        final FileChannel file = open();
+        try {
+            while (buffer.hasRemaining()) {
+                if (file.read(buffer, position + count - buffer.remaining()) == -1) {
+                    throw new IOException("Unexpected end of file while reading: " + path);
+                }
+            }
+        } finally {
+            buffer.limit(limit);
+            if (!isShared()) {
+                file.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%d, %d)", path, position, position + count);
+    }
+}
@@ -9,14 +9,13 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Slf4j
 @AllArgsConstructor
@@ -24,13 +23,23 @@ import java.util.stream.Collectors;
 public class HTTPRequest {
     private final HTTPMethod method;
 
+    /**
+     * Protocol version of the request line, e.g. {@code HTTP/1.1}.
+     */
+    private final String version;
+
     private final InetLocation inetLocation;
 
     private final InetLocation routerAddress;
 
-    private final Map<String, String> headers;
+    /**
+     * Host header as sent, for a request received by the server.
+     */
+    private final String host;
+
+    private final Headers headers;
 
-    private final String body;
+    private final ByteBuffer body;
 
     private final File in;
 
@@ -38,10 +47,40 @@ public class HTTPRequest {
 
     private final String path;
 
+    /**
+     * A request received by the server, kept as parsed: the host and target are not resolved, so the request has no
+     * {@link #url()} nor addresses.
+     */
+    static HTTPRequest received(
+        final HTTPMethod method,
+        final String version,
+        final String host,
+        final String target,
+        final Headers headers,
+        final ByteBuffer body) {
+        return new HTTPRequest(method, version, null, null, host, headers, body, null, null, target);
+    }
+
     public HTTPMethod method() {
         return method;
     }
 
+    public String version() {
+        return version;
+    }
+
+    /**
+     * Whether the connection the request was sent on stays open after the response: from HTTP/1.1 on unless the
+     * Connection header lists {@code close}, in HTTP/1.0 only if it lists {@code keep-alive}.
+     */
+    public boolean isKeepAlive() {
+        final String connection = header(Const.Headers.CONNECTION);
+        if (Const.HTTP_1_0.equals(version)) {
+            return hasToken(connection, "keep-alive");
+        }
+        return !hasToken(connection, "close");
+    }
+
     public InetLocation url() {
         return inetLocation;
     }
@@ -55,10 +94,13 @@ public class HTTPRequest {
     }
 
     public String host() {
-        return inetLocation.host();
+        return inetLocation != null ? inetLocation.host() : host;
     }
 
     public String path() {
+        if (inetLocation == null) {
+            return path;
+        }
         if (path == null) {
             return inetLocation.path() + (inetLocation.query() == null ? "" : "?" + inetLocation.query());
         } else {
@@ -71,12 +113,22 @@ public class HTTPRequest {
         }
     }
 
-    public Map<String, String> headers() {
+    public Headers headers() {
         return headers;
     }
 
-    public String body() {
-        return body;
+    /**
+     * @return the value of the header with the given name ignoring case, or null if absent
+     */
+    public String header(final String name) {
+        return headers != null ? headers.get(name) : null;
+    }
+
+    /**
+     * @return a view of the body with its own position, or null if there is none
+     */
+    public ByteBuffer body() {
+        return body != null ? body.duplicate() : null;
     }
 
     public File in() {
@@ -96,7 +148,8 @@ public class HTTPRequest {
         private String url = null;
         private String routerAddress = null;
         private List<String> headers = null;
-        private String body = null;
+        private Headers fields = null;
+        private ByteBuffer body = null;
         private String in = null;
         private String out = null;
         private String spec = null;
@@ -129,15 +182,25 @@ public class HTTPRequest {
 
         public Builder headers(final List<String> headers) {
             this.headers = headers;
+            fields = null;
             return this;
         }
 
         public Builder headers(final Map<String, String> headers) {
-            this.headers = headers.entrySet().stream().map(e -> e.getKey() + ": " + e.getValue()).collect(Collectors.toList());
+            fields = headers instanceof Headers ? (Headers) headers : new Headers(headers);
+            this.headers = null;
             return this;
         }
 
+        /**
+         * Text body, sent as UTF-8.
+         */
         public Builder body(final String body) {
+            this.body = body != null ? ByteBuffer.wrap(body.getBytes(UTF_8)) : null;
+            return this;
+        }
+
+        public Builder body(final ByteBuffer body) {
             this.body = body;
             return this;
         }
@@ -158,10 +221,10 @@ public class HTTPRequest {
             }
 
             if (in != null) {
-                body = new String(Files.readAllBytes(Paths.get(in)));
+                body = ByteBuffer.wrap(Files.readAllBytes(Paths.get(in)));
             }
 
-            final var mappedHeaders = new HashMap<String, String>();
+            final var mappedHeaders = fields != null ? fields : new Headers();
 
             if (headers != null) {
                 for (final var header : headers) {
@@ -184,8 +247,10 @@ public class HTTPRequest {
 
             return new HTTPRequest(
                 method,
+                Const.HTTP_1_0,
                 InetLocation.fromSpec(url),
                 InetLocation.fromSpec(Const.DEFAULT_ROUTER_ADDRESS),
+                null,
                 mappedHeaders,
                 body,
                 in != null ? new File(in) : null,
@@ -194,11 +259,13 @@ public class HTTPRequest {
         }
     }
 
-    @Override
-    public String toString() {
+    /**
+     * Request line and headers, terminated by the blank line separating them from the body.
+     */
+    public String head() {
         final StringBuilder sb = new StringBuilder();
 
-        sb.append(String.format("%s %s HTTP/1.0%s", method().name(), path().equals("") ? "/" : path(), Const.CRLF));
+        sb.append(String.format("%s %s %s%s", method().name(), path().equals("") ? "/" : path(), version, Const.CRLF));
         sb.append(String.format("Host: %s%s", host(), Const.CRLF));
         if (headers() != null) {
             for (final var entry : headers().entrySet()) {
@@ -208,13 +275,8 @@ public class HTTPRequest {
 
         addHeaderIfAbsent(sb, Const.Headers.CONTENT_TYPE, Const.Headers.APPLICATION_JSON);
 
-        if (body() != null) {
-            addHeaderIfAbsent(sb, Const.Headers.CONTENT_LENGTH, body().length());
-        }
-
-        if (body() != null) {
-            sb.append(Const.CRLF);
-            sb.append(String.format("%s", body()));
+        if (body != null) {
+            addHeaderIfAbsent(sb, Const.Headers.CONTENT_LENGTH, body.remaining());
         }
 
         sb.append(Const.CRLF);
@@ -222,59 +284,45 @@ public class HTTPRequest {
         return sb.toString();
     }
 
-    public static Either<HTTPRequest, String> of(final String spec) throws RequestError {
-        final Builder requestBuilder = HTTPRequest.builder();
-        requestBuilder.spec(spec);
-
-        int lineBreakCount = 0;
-        int lineCount = 1;
-
-        String host;
-        String path = "";
-        final List<String> headers = new ArrayList<>();
+    /**
+     * Full encoded request, as sent on the wire.
+     */
+    public byte[] bytes() {
+        final byte[] head = head().getBytes(UTF_8);
+        if (body == null) {
+            return head;
+        }
 
-        for (final var line : spec.split(Const.CRLF)) {
-            if (lineCount == 1) {
-                final String[] lexemes = line.split("\\s+");
-                if (lexemes.length != 3) {
-                    return Either.right("First line of HTTP request did not contain 3 space delimited lexemes: " + line);
-                }
-                requestBuilder.method(HTTPMethod.of(lexemes[0]));
-                path = lexemes[1];
-            } else if (lineCount == 2) {
-                if (!line.contains("Host: ")) {
-                    return Either.right("Second line of HTTP request did not contain 'Host: ..' information");
-                }
-                host = Pattern.compile("Host: (\\S+)").matcher(line).results().map(ee -> ee.group(1)).findFirst().orElse(null);
-                requestBuilder.url("http://" + host + path);
-            } else if (!line.trim().equalsIgnoreCase("") && lineBreakCount == 0) {
-                headers.add(line.trim());
-            }
+        final ByteBuffer bytes = ByteBuffer.allocate(head.length + body.remaining()).put(head).put(body());
+        return bytes.array();
+    }
 
-            if (line.equalsIgnoreCase("")) {
-                lineBreakCount += 1;
-            } else if (lineBreakCount == 1) {
-                requestBuilder.body(line);
-            }
+    @Override
+    public String toString() {
+        return body != null ? head() + UTF_8.decode(body()) : head();
+    }
 
-            lineCount += 1;
-        }
+    public static Either<HTTPRequest, String> of(final String spec) throws RequestError {
+        return of(spec.getBytes(UTF_8));
+    }
 
-        if (!headers.isEmpty()) {
-            requestBuilder.headers(headers);
+    public static Either<HTTPRequest, String> of(final byte[] spec) {
+        final var parser = new HTTPRequestParser();
+        if (!parser.parse(ByteBuffer.wrap(spec))) {
+            return Either.right(parser.isInvalid() ? parser.error() : "HTTP request ended before its body");
         }
 
         try {
-            final var request = requestBuilder.build();
+            final var request = parser.request();
             final var isValid = request.valid();
             return isValid.isLeft() ? Either.left(request) : Either.right(isValid.get());
-        } catch (final IOException e) {
-            return Either.right("received IOException: " + e.getMessage());
+        } catch (final RequestError e) {
+            return Either.right(e.getClass().getSimpleName() + ": " + e.getMessage());
         }
     }
 
     public Either<Boolean, String> valid() {
-        if (url().path() == null) {
+        if (inetLocation != null ? inetLocation.path() == null : path == null) {
             return Either.right("url.path was null");
         }
 
@@ -292,7 +340,7 @@ public class HTTPRequest {
     private Either<Boolean, String> validBody() {
         if (method() == HTTPMethod.POST && headers != null) {
             final var contentLength = headers.getOrDefault("Content-Length", "0");
-            final var bodyLength = String.valueOf(body != null ? body.length() : 0);
+            final var bodyLength = String.valueOf(body != null ? body.remaining() : 0);
             if (!contentLength.equals(bodyLength)) {
                 return Either.right(String.format(
                     "Content-Length header value (%s) did not match body's length parsed (%s)",
@@ -313,6 +361,35 @@ public class HTTPRequest {
         addHeaderIfAbsent(sb, headerKey, Integer.toString(headerValue));
     }
 
+    /**
+     * @return whether the comma separated list contains the token, ignoring case
+     */
+    private static boolean hasToken(final String list, final String token) {
+        if (list == null) {
+            return false;
+        }
+        int start = 0;
+        while (start <= list.length()) {
+            int end = list.indexOf(',', start);
+            if (end == -1) {
+                end = list.length();
+            }
+            int from = start;
+            int to = end;
+            while (from < to && Character.isWhitespace(list.charAt(from))) {
+                from++;
+            }
+            while (to > from && Character.isWhitespace(list.charAt(to - 1))) {
+                to--;
+            }
+            if (to - from == token.length() && list.regionMatches(true, from, token, 0, token.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
     public static class RequestError extends Exception {
         public RequestError(final String message) {
             super(message);
@@ -0,0 +1,406 @@
+package httpnio.common;
+
+import httpnio.Const;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Resumable HTTP/1.x request parser working directly on the bytes of a {@link ByteBuffer}.
+ * <p>
+ * The request is expected to start at the buffer's position. Each call to {@link #parse(ByteBuffer)} scans only the
+ * bytes it has not seen yet, so a request can be fed in as many partial reads as needed, as long as the unconsumed
+ * bytes are kept at the buffer's position between calls (e.g. with {@link ByteBuffer#compact()}). All offsets are
+ * relative to the start of the request.
+ */
+public final class HTTPRequestParser {
+
+    public enum State {
+        REQUEST_LINE,
+        HEADERS,
+        BODY,
+        COMPLETE,
+        INVALID
+    }
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private static final byte[] CONTENT_LENGTH = Const.Headers.CONTENT_LENGTH.getBytes(ISO_8859_1);
+
+    private static final byte[] TRANSFER_ENCODING = Const.Headers.TRANSFER_ENCODING.getBytes(ISO_8859_1);
+
+    private static final byte[] HTTP_VERSION_PREFIX = "HTTP/".getBytes(ISO_8859_1);
+
+    private static final byte[] HTTP_1_0 = Const.HTTP_1_0.getBytes(ISO_8859_1);
+
+    private static final byte[] HTTP_1_1 = Const.HTTP_1_1.getBytes(ISO_8859_1);
+
+    private ByteBuffer buffer;
+
+    private int base;
+
+    private State state = State.REQUEST_LINE;
+
+    private int cursor;
+
+    private int lineStart;
+
+    private HTTPMethod method;
+
+    private int targetStart;
+
+    private int targetEnd;
+
+    private String version;
+
+    private int[] headerOffsets = new int[4 * 16];
+
+    private int headerCount;
+
+    private int bodyStart;
+
+    private long contentLength;
+
+    private boolean hasContentLength;
+
+    private String error;
+
+    public boolean parse(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        base = buffer.position();
+        final int available = buffer.remaining();
+
+        while (cursor < available && (state == State.REQUEST_LINE || state == State.HEADERS)) {
+            if (buffer.get(base + cursor++) != '\n') {
+                continue;
+            }
+
+            final int lineEnd = cursor - 2 >= lineStart && buffer.get(base + cursor - 2) == '\r' ? cursor - 2 : cursor - 1;
+            if (state == State.REQUEST_LINE) {
+                requestLine(lineStart, lineEnd);
+            } else {
+                header(lineStart, lineEnd);
+            }
+            lineStart = cursor;
+        }
+
+        if ((state == State.REQUEST_LINE || state == State.HEADERS) && cursor > MAX_HEADER_SIZE) {
+            invalid("Request header exceeded " + MAX_HEADER_SIZE + " bytes");
+        }
+
+        if (state == State.BODY && available - bodyStart >= contentLength) {
+            state = State.COMPLETE;
+        }
+
+        return state == State.COMPLETE;
+    }
+
+    public void reset() {
+        buffer = null;
+        base = 0;
+        state = State.REQUEST_LINE;
+        cursor = 0;
+        lineStart = 0;
+        method = null;
+        targetStart = 0;
+        targetEnd = 0;
+        version = null;
+        headerCount = 0;
+        bodyStart = 0;
+        contentLength = 0;
+        hasContentLength = false;
+        error = null;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    public boolean isInvalid() {
+        return state == State.INVALID;
+    }
+
+    public String error() {
+        return error;
+    }
+
+    public HTTPMethod method() {
+        return method;
+    }
+
+    public String target() {
+        return string(targetStart, targetEnd);
+    }
+
+    public String version() {
+        return version;
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    public String headerName(final int index) {
+        return string(headerOffsets[4 * index], headerOffsets[4 * index + 1]);
+    }
+
+    public String headerValue(final int index) {
+        return string(headerOffsets[4 * index + 2], headerOffsets[4 * index + 3]);
+    }
+
+    public String header(final String name) {
+        final byte[] bytes = name.getBytes(ISO_8859_1);
+        for (int i = 0; i < headerCount; i++) {
+            if (equalsIgnoreCase(headerOffsets[4 * i], headerOffsets[4 * i + 1], bytes)) {
+                return headerValue(i);
+            }
+        }
+        return null;
+    }
+
+    public int bodyOffset() {
+        return bodyStart;
+    }
+
+    public long contentLength() {
+        return contentLength;
+    }
+
+    public boolean headersComplete() {
+        return state == State.BODY || state == State.COMPLETE;
+    }
+
+    public ByteBuffer body() {
+        final ByteBuffer body = buffer.duplicate();
+        body.limit(base + length());
+        body.position(base + bodyStart);
+        return body.slice();
+    }
+
+    /**
+     * Number of bytes making up the whole request, i.e. how far to advance the buffer once it is complete.
+     */
+    public int length() {
+        return Math.toIntExact(bodyStart + contentLength);
+    }
+
+    /**
+     * The whole request. Its body is a copy of the bytes, as the buffer parsed is usually reused for what follows.
+     */
+    public HTTPRequest request() throws HTTPRequest.RequestError {
+        if (state != State.COMPLETE) {
+            throw new HTTPRequest.RequestError("Request is not complete, parser is in state " + state);
+        }
+        return request(contentLength > 0 ? ByteBuffer.allocate(Math.toIntExact(contentLength)).put(body()).flip() : null);
+    }
+
+    /**
+     * Request line and headers only, available as soon as the headers are parsed so the body can be streamed.
+     */
+    public HTTPRequest head() throws HTTPRequest.RequestError {
+        if (!headersComplete()) {
+            throw new HTTPRequest.RequestError("Request headers are not complete, parser is in state " + state);
+        }
+        return request(null);
+    }
+
+    /**
+     * Nothing is resolved: the host and target are kept as sent.
+     */
+    private HTTPRequest request(final ByteBuffer body) throws HTTPRequest.RequestError {
+        final Headers headers = Headers.parsed(headBytes(), headerOffsets, headerCount);
+        final String host = headers.get(Const.Headers.HOST);
+        if (host == null) {
+            throw new HTTPRequest.RequestError("HTTP request did not contain 'Host: ..' information");
+        }
+        return HTTPRequest.received(method, version, host, target(), headers, body);
+    }
+
+    private byte[] headBytes() {
+        final byte[] head = new byte[bodyStart];
+        buffer.get(base, head);
+        return head;
+    }
+
+    private void requestLine(final int start, final int end) {
+        if (start == end) {
+            return; // Tolerate empty lines preceding the request line
+        }
+
+        final int methodEnd = indexOf(' ', start, end);
+        final int targetEndIndex = methodEnd == -1 ? -1 : indexOf(' ', methodEnd + 1, end);
+        if (targetEndIndex == -1 || indexOf(' ', targetEndIndex + 1, end) != -1) {
+            invalid("First line of HTTP request did not contain 3 space delimited lexemes: " + string(start, end));
+            return;
+        }
+
+        if (!startsWith(targetEndIndex + 1, end, HTTP_VERSION_PREFIX)) {
+            invalid("Unsupported protocol version: " + string(targetEndIndex + 1, end));
+            return;
+        }
+
+        method = method(start, methodEnd);
+        if (method == null) {
+            invalid("Invalid http method specified: " + string(start, methodEnd));
+            return;
+        }
+
+        targetStart = methodEnd + 1;
+        targetEnd = targetEndIndex;
+        version = version(targetEndIndex + 1, end);
+        state = State.HEADERS;
+    }
+
+    private void header(final int start, final int end) {
+        if (start == end) {
+            bodyStart = cursor;
+            state = contentLength > 0 ? State.BODY : State.COMPLETE;
+            return;
+        }
+
+        final int colon = indexOf(':', start, end);
+        if (colon == -1) {
+            invalid("Error occurred while parsing the header: " + string(start, end) + ". Should of been delimited by a `:`.");
+            return;
+        }
+
+        int nameEnd = colon;
+        while (nameEnd > start && isWhitespace(byteAt(nameEnd - 1))) {
+            nameEnd--;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && isWhitespace(byteAt(valueStart))) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && isWhitespace(byteAt(valueEnd - 1))) {
+            valueEnd--;
+        }
+
+        if (equalsIgnoreCase(start, nameEnd, CONTENT_LENGTH)) {
+            final long value = parseContentLength(valueStart, valueEnd);
+            if (value < 0) {
+                invalid("Invalid Content-Length header value: " + string(valueStart, valueEnd));
+                return;
+            }
+            if (hasContentLength && value != contentLength) {
+                invalid("Conflicting Content-Length header values: " + contentLength + " and " + value);
+                return;
+            }
+            contentLength = value;
+            hasContentLength = true;
+        } else if (equalsIgnoreCase(start, nameEnd, TRANSFER_ENCODING)) {
+            // Not decoded: the body would otherwise be read as the requests following it
+            invalid("Transfer-Encoding is not supported on requests: " + string(valueStart, valueEnd));
+            return;
+        }
+
+        if (4 * (headerCount + 1) > headerOffsets.length) {
+            final int[] grown = new int[headerOffsets.length * 2];
+            System.arraycopy(headerOffsets, 0, grown, 0, headerOffsets.length);
+            headerOffsets = grown;
+        }
+        headerOffsets[4 * headerCount] = start;
+        headerOffsets[4 * headerCount + 1] = nameEnd;
+        headerOffsets[4 * headerCount + 2] = valueStart;
+        headerOffsets[4 * headerCount + 3] = valueEnd;
+        headerCount++;
+    }
+
+    private HTTPMethod method(final int start, final int end) {
+        for (final var candidate : HTTPMethod.values()) {
+            if (equalsIgnoreCase(start, end, candidate.name().getBytes(ISO_8859_1))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private String version(final int start, final int end) {
+        if (equalsIgnoreCase(start, end, HTTP_1_1)) {
+            return Const.HTTP_1_1;
+        }
+        if (equalsIgnoreCase(start, end, HTTP_1_0)) {
+            return Const.HTTP_1_0;
+        }
+        return string(start, end);
+    }
+
+    private long parseContentLength(final int start, final int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = byteAt(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private void invalid(final String message) {
+        error = message;
+        state = State.INVALID;
+    }
+
+    private byte byteAt(final int offset) {
+        return buffer.get(base + offset);
+    }
+
+    private int indexOf(final char c, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (byteAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(final int start, final int end, final byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (byteAt(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalsIgnoreCase(final int start, final int end, final byte[] other) {
+        if (end - start != other.length) {
+            return false;
+        }
+        for (int i = 0; i < other.length; i++) {
+            if (toLowerCase(byteAt(start + i)) != toLowerCase(other[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        return new String(bytes, ISO_8859_1);
+    }
+
+    private static byte toLowerCase(final byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -9,10 +9,14 @@ import lombok.NoArgsConstructor;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -23,7 +27,7 @@ import java.util.stream.Collectors;
 @Accessors(fluent = true)
 @Builder(toBuilder = true)
 final public class HTTPResponse {
-    private static final String STATUS_LINE_REGEX = "^HTTP/\\d.\\d (\\d+) (.*)\r?$";
+    private static final Pattern STATUS_LINE = Pattern.compile("^HTTP/\\d.\\d (\\d+) (.*)\r?$");
 
     private HTTPRequest request;
 
@@ -31,65 +35,120 @@ final public class HTTPResponse {
 
     private String statusMessage;
 
-    private Map<String, String> headers;
+    private Headers headers;
 
-    private String body;
+    private byte[] body;
+
+    private FileRegion file;
+
+    /**
+     * Body made of several file regions, each preceded by some text, e.g. the parts of a multipart/byteranges body.
+     */
+    private List<Part> parts;
+
+    /**
+     * The whole response already encoded, status line to last body byte, e.g. when served from a cache. Takes
+     * precedence over the body and file when writing the response out.
+     */
+    private ByteBuffer encoded;
+
+    /**
+     * Body of unknown length, sent with chunked transfer encoding as it is produced.
+     */
+    private ChunkedBody chunks;
 
     public HTTPResponse(final HTTPRequest request, final String messageHeader, final String messageBody) {
+        this(request, messageHeader, messageBody != null ? messageBody.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    public HTTPResponse(final HTTPRequest request, final String messageHeader, final byte[] messageBody) {
         this.request = request;
         body = messageBody;
-        final var statusLine = Arrays.stream(messageHeader.split("\n"))
-            .filter(e -> e.matches(STATUS_LINE_REGEX))
-            .map(e -> Pattern.compile(STATUS_LINE_REGEX).matcher(e).results().map(ee -> ee.group(0)).findFirst().orElse(null))
-            .filter(Objects::nonNull)
-            .findFirst()
-            .orElse(null);
-        statusCode = Pattern.compile(STATUS_LINE_REGEX)
-            .matcher(Objects.requireNonNullElse(statusLine, ""))
-            .results()
-            .map(e -> e.group(1))
-            .map(String::trim)
-            .findFirst()
-            .orElse(null);
-        statusMessage = Pattern.compile(STATUS_LINE_REGEX)
-            .matcher(Objects.requireNonNullElse(statusLine, ""))
-            .results()
-            .map(e -> e.group(2))
-            .map(String::trim)
-            .findFirst()
-            .orElse(null);
-        headers = Arrays.stream(messageHeader.split("\n"))
-            .filter(e -> e.contains(":"))
-            .map(e -> e.split(": "))
-            .collect(Collectors.toMap(e -> e[0], e -> e[1], (value1, value2) -> {
-                System.err.println("Duplicate key found. Discarding value: " + value1);
-                return value2;
-            }));
+        headers = new Headers();
+        for (final String line : messageHeader.split("\n")) {
+            final Matcher statusLine = STATUS_LINE.matcher(line);
+            if (statusCode == null && statusLine.matches()) {
+                statusCode = statusLine.group(1).trim();
+                statusMessage = statusLine.group(2).trim();
+                continue;
+            }
+
+            final int colon = line.indexOf(':');
+            if (colon != -1) {
+                final String name = line.substring(0, colon).trim();
+                final String previous = headers.put(name, line.substring(colon + 1).trim());
+                if (previous != null) {
+                    log.warn("Duplicate header {} found, discarding value: {}", name, previous);
+                }
+            }
+        }
     }
 
     public static Either<HTTPResponse, String> of(final HTTPRequest request, final String spec) {
+        return of(request, spec.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Either<HTTPResponse, String> of(final HTTPRequest request, final byte[] spec) {
         try {
-            final var lines = List.of(spec.split(Const.CRLF));
-            final var lastLineOfHeaderIndex = indexOfBlankLine(spec);
-            if (lastLineOfHeaderIndex == -1) {
+            final var bodyIndex = indexOfBody(spec);
+            if (bodyIndex == -1) {
                 return Either.right("could not parse blank line in HTTP response");
             }
-            final var messageHeader = lines.subList(0, lastLineOfHeaderIndex);
-            final var messageBody = lines.subList(lastLineOfHeaderIndex + 1, lines.size());
-            final var response = new HTTPResponse(request, String.join("\n", messageHeader), String.join("\n", messageBody));
-
-            final var isValid = response.valid();
-            return isValid.isLeft() ? Either.left(response) : Either.right(isValid.get());
+            final var messageHeader = new String(spec, 0, bodyIndex, StandardCharsets.ISO_8859_1).trim().replace(Const.CRLF, "\n");
+            final var messageBody = Arrays.copyOfRange(spec, bodyIndex, spec.length);
+            return of(request, messageHeader, isChunked(messageHeader) ? dechunk(messageBody) : messageBody);
         } catch (final Exception e) {
             return Either.right("received IOException: " + e.getMessage());
         }
     }
 
-    private static int indexOfBlankLine(final String text) {
-        final var lines = List.of(text.split("\n"));
-        for (var i = 0; i < lines.size(); i++) {
-            if (lines.get(i).equals("") || lines.get(i).equals("\r")) {
-                return i;
+    /**
+     * @param messageHeader status line and headers, one per line
+     * @param messageBody   body, already decoded if it was sent chunked
+     */
+    public static Either<HTTPResponse, String> of(final HTTPRequest request, final String messageHeader, final byte[] messageBody) {
+        final var response = new HTTPResponse(request, messageHeader, messageBody);
+        final var isValid = response.valid();
+        return isValid.isLeft() ? Either.left(response) : Either.right(isValid.get());
+    }
+
+    /**
+     * Whether the body following the given status line and headers is sent with chunked transfer encoding.
+     */
+    public static boolean isChunked(final String messageHeader) {
+        for (final String line : messageHeader.split("\n")) {
+            final int colon = line.indexOf(':');
+            if (colon != -1
+                && line.substring(0, colon).trim().equalsIgnoreCase(Const.Headers.TRANSFER_ENCODING)
+                && line.substring(colon + 1).toLowerCase().contains("chunked")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] dechunk(final byte[] chunkedBody) throws IOException {
+        final var decoder = new ChunkedDecoder();
+        final var out = new ByteArrayOutputStream();
+        if (!decoder.decode(ByteBuffer.wrap(chunkedBody), out)) {
+            throw new IOException(decoder.isInvalid() ? decoder.error() : "chunked body ended before its last chunk");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the index of the first byte after the blank line ending the headers, or -1 if there is no blank line
+     */
+    private static int indexOfBody(final byte[] message) {
+        for (var i = 0; i < message.length; i++) {
+            if (message[i] != '\n') {
+                continue;
+            }
+            if (i + 1 < message.length && message[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < message.length && message[i + 1] == '\r' && message[i + 2] == '\n') {
+                return i + 3;
             }
         }
         return -1;
@@ -111,10 +170,14 @@ final public class HTTPResponse {
         return validBody();
     }
 
+    /**
+     * A body without Content-Length nor chunked transfer encoding is ended by the connection closing, so any length is
+     * valid.
+     */
     private Either<Boolean, String> validBody() {
-        if (headers != null) {
-            final var contentLength = headers.getOrDefault("Content-Length", "0");
-            final var bodyLength = String.valueOf(body != null ? body.length() : 0);
+        if (headers != null && !isChunked() && headers.containsKey(Const.Headers.CONTENT_LENGTH)) {
+            final var contentLength = headers.get(Const.Headers.CONTENT_LENGTH);
+            final var bodyLength = String.valueOf(body != null ? body.length : 0);
             if (!contentLength.equals(bodyLength)) {
                 return Either.right(String.format(
                     "Content-Length header value (%s) did not match body's length parsed (%s)",
@@ -125,6 +188,11 @@ final public class HTTPResponse {
         return Either.left(true);
     }
 
+    private boolean isChunked() {
+        final String transferEncoding = headers.get(Const.Headers.TRANSFER_ENCODING);
+        return transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+    }
+
     public String statusLine() {
         return "HTTP/1.0 " + statusCode + " " + statusMessage;
     }
@@ -139,30 +207,135 @@ final public class HTTPResponse {
             .collect(Collectors.joining("\n"));
     }
 
-    @Override
-    public String toString() {
-        final var sb = new StringBuilder();
-        var contentLengthAdded = false;
+    /**
+     * Status line and headers, terminated by the blank line separating them from the body.
+     */
+    public String head() {
+        return new String(headBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return a view of the encoded response with its own position, so the same response can be written out many
+     * times concurrently
+     */
+    public ByteBuffer encoded() {
+        return encoded != null ? encoded.duplicate() : null;
+    }
 
-        sb.append(String.format("HTTP/1.1 %s %s%s", statusCode, statusMessage, Const.CRLF));
+    /**
+     * Full encoded response, reading the file region into memory if the body is backed by one.
+     */
+    public byte[] bytes() throws IOException {
+        if (encoded != null) {
+            final ByteBuffer view = encoded();
+            final byte[] bytes = new byte[view.remaining()];
+            view.get(bytes);
+            return bytes;
+        }
 
-        for (final var header : headers.entrySet()) {
-            sb.append(String.format("%s: %s%s", header.getKey(), header.getValue(), Const.CRLF));
-            if (header.getKey().equalsIgnoreCase(Const.Headers.CONTENT_LENGTH)) {
-                contentLengthAdded = true;
+        if (chunks != null) {
+            final var out = new ByteArrayOutputStream();
+            out.write(headBytes());
+            try (final ChunkedBody body = chunks) {
+                ByteBuffer chunk;
+                while ((chunk = body.next()) != null) {
+                    final byte[] content = new byte[chunk.remaining()];
+                    chunk.get(content);
+                    out.write((Integer.toHexString(content.length) + Const.CRLF).getBytes(StandardCharsets.ISO_8859_1));
+                    out.write(content);
+                    out.write(Const.CRLF.getBytes(StandardCharsets.ISO_8859_1));
+                }
             }
+            out.write(("0" + Const.CRLF + Const.CRLF).getBytes(StandardCharsets.ISO_8859_1));
+            return out.toByteArray();
         }
 
-        if (body != null) {
-            if (!contentLengthAdded) {
-                sb.append(String.format("%s: %s%s", Const.Headers.CONTENT_LENGTH, body.length(), Const.CRLF));
+        if (parts != null) {
+            final var out = new ByteArrayOutputStream();
+            out.write(headBytes());
+            for (final var part : parts) {
+                out.write(part.prefix().getBytes(StandardCharsets.ISO_8859_1));
+                if (part.region() != null) {
+                    out.write(part.region().read());
+                }
             }
-            sb.append(Const.CRLF);
-            sb.append(body);
-        } else {
-            sb.append(Const.CRLF);
+            return out.toByteArray();
+        }
+
+        if (file != null && file.count() > Integer.MAX_VALUE - ResponseEncoder.headLength(this)) {
+            throw new IOException("File region too large to be read in memory: " + file);
+        }
+        final int contentLength = file != null ? (int) file.count() : body != null ? body.length : 0;
+        final ByteBuffer out = ResponseEncoder.encodeHead(this, ByteBuffer.allocate(ResponseEncoder.headLength(this) + contentLength));
+        if (file != null) {
+            file.read(out);
+        } else if (body != null) {
+            out.put(body);
+        }
+        return out.array();
+    }
+
+    private byte[] headBytes() {
+        return ResponseEncoder.encodeHead(this, ByteBuffer.allocate(ResponseEncoder.headLength(this))).array();
+    }
+
+    @Override
+    public String toString() {
+        if (encoded != null) {
+            return StandardCharsets.ISO_8859_1.decode(encoded()).toString();
+        }
+
+        if (chunks != null) {
+            return head() + "<chunked>";
+        }
+
+        if (parts != null) {
+            return head() + "<" + parts.stream().map(e -> String.valueOf(e.region())).collect(Collectors.joining(", ")) + ">";
+        }
+
+        if (file != null) {
+            return head() + "<" + file + ">";
         }
 
-        return sb.toString();
+        return body != null ? head() + text() : head();
+    }
+
+    /**
+     * Body decoded as UTF-8, for display.
+     */
+    public String text() {
+        return body != null ? new String(body, StandardCharsets.UTF_8) : null;
+    }
+
+    public static class HTTPResponseBuilder {
+        public HTTPResponseBuilder headers(final Map<String, String> headers) {
+            this.headers = headers == null || headers instanceof Headers ? (Headers) headers : new Headers(headers);
+            return this;
+        }
+
+        public HTTPResponseBuilder body(final byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Text body, sent as UTF-8.
+         */
+        public HTTPResponseBuilder body(final String body) {
+            this.body = body != null ? body.getBytes(StandardCharsets.UTF_8) : null;
+            return this;
+        }
+    }
+
+    /**
+     * Text, sent as ISO-8859-1, followed by an optional file region.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    @AllArgsConstructor
+    public static final class Part {
+        private final String prefix;
+
+        private final FileRegion region;
     }
 }
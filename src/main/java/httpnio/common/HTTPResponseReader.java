@@ -0,0 +1,369 @@
+package httpnio.common;
+
+import httpnio.Const;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * HTTP/1.x response parser reading from a stream, a buffer at a time.
+ * <p>
+ * {@link #readHead()} parses the status line and headers, after which {@link #body()} streams the body and ends
+ * exactly where the response does: after Content-Length bytes, at the last chunk of a chunked body, or when the
+ * connection is closed if the response has neither. Bytes read past the end of a response are kept for the next one,
+ * so several responses can be read off the same connection.
+ */
+public final class HTTPResponseReader {
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private static final InputStream EMPTY = InputStream.nullInputStream();
+
+    private final InputStream in;
+
+    private final byte[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    private String statusCode;
+
+    private String statusMessage;
+
+    private Headers headers;
+
+    private long contentLength;
+
+    private boolean chunked;
+
+    private InputStream body;
+
+    public HTTPResponseReader(final InputStream in) {
+        this.in = in;
+        buffer = new byte[Const.DEFAULT_READ_BUFFER_SIZE];
+    }
+
+    /**
+     * Reads the status line and headers of the next response, skipping what is left of the previous one's body and
+     * any interim (1xx) response.
+     *
+     * @return false if the connection was closed before the next response started
+     */
+    public boolean readHead() throws IOException {
+        if (body != null) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+
+        do {
+            statusCode = null;
+            statusMessage = null;
+            headers = new Headers();
+            contentLength = -1;
+            chunked = false;
+            body = null;
+
+            int size = 0;
+            String line;
+            while ((line = line()) != null) {
+                size += line.length();
+                if (size > MAX_HEADER_SIZE) {
+                    throw new IOException("Response header exceeded " + MAX_HEADER_SIZE + " bytes");
+                }
+                if (statusCode == null) {
+                    if (!line.isEmpty()) {
+                        statusLine(line);
+                    }
+                } else if (line.isEmpty()) {
+                    break;
+                } else {
+                    header(line);
+                }
+            }
+
+            if (line == null) {
+                if (statusCode == null && size == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed before the end of the response headers");
+            }
+        } while (statusCode.startsWith("1"));
+
+        if (statusCode.equals("204") || statusCode.equals("304")) {
+            contentLength = 0;
+            chunked = false;
+            body = EMPTY;
+        } else if (chunked) {
+            body = new ChunkedStream();
+        } else if (contentLength >= 0) {
+            body = new FixedLengthStream(contentLength);
+        } else {
+            body = new UntilCloseStream();
+        }
+        return true;
+    }
+
+    public String statusCode() {
+        return statusCode;
+    }
+
+    public String statusMessage() {
+        return statusMessage;
+    }
+
+    public Headers headers() {
+        return headers;
+    }
+
+    /**
+     * @return the length of the body, or -1 if it is chunked or ends when the connection is closed
+     */
+    public long contentLength() {
+        return chunked ? -1 : contentLength;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * The body of the response whose head was last read, decoded if it was sent chunked. Ends with the response,
+     * without closing the underlying stream.
+     */
+    public InputStream body() {
+        return body;
+    }
+
+    /**
+     * Reads the rest of the body into memory.
+     */
+    public HTTPResponse response(final HTTPRequest request) throws IOException {
+        final long length = contentLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Response body too large to be read in memory: " + length + " bytes");
+        }
+
+        final byte[] content = length >= 0 ? body.readNBytes((int) length) : body.readAllBytes();
+        if (content.length < length) {
+            throw new EOFException("Connection closed before the end of the response body");
+        }
+        return HTTPResponse.builder()
+            .request(request)
+            .statusCode(statusCode)
+            .statusMessage(statusMessage)
+            .headers(headers)
+            .body(content)
+            .build();
+    }
+
+    private void statusLine(final String line) throws IOException {
+        final int codeStart = line.indexOf(' ');
+        if (!line.startsWith("HTTP/") || codeStart == -1) {
+            throw new IOException("Invalid status line: " + line);
+        }
+
+        final int codeEnd = line.indexOf(' ', codeStart + 1);
+        statusCode = (codeEnd == -1 ? line.substring(codeStart + 1) : line.substring(codeStart + 1, codeEnd)).trim();
+        statusMessage = codeEnd == -1 ? "" : line.substring(codeEnd + 1).trim();
+        if (statusCode.isEmpty()) {
+            throw new IOException("Invalid status line: " + line);
+        }
+    }
+
+    private void header(final String line) throws IOException {
+        final int colon = line.indexOf(':');
+        if (colon == -1) {
+            throw new IOException("Invalid response header: " + line);
+        }
+
+        final String name = line.substring(0, colon).trim();
+        final String value = line.substring(colon + 1).trim();
+        headers.put(name, value);
+
+        if (name.equalsIgnoreCase(Const.Headers.CONTENT_LENGTH)) {
+            try {
+                contentLength = Long.parseLong(value);
+            } catch (final NumberFormatException e) {
+                contentLength = -1;
+            }
+            if (contentLength < 0) {
+                throw new IOException("Invalid Content-Length header value: " + value);
+            }
+        } else if (name.equalsIgnoreCase(Const.Headers.TRANSFER_ENCODING) && value.toLowerCase().contains("chunked")) {
+            chunked = true;
+        }
+    }
+
+    /**
+     * @return the next line without its line terminator, or null if the connection was closed before it ended
+     */
+    private String line() throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (; position + scanned < limit; scanned++) {
+                if (buffer[position + scanned] == '\n') {
+                    final int end = scanned > 0 && buffer[position + scanned - 1] == '\r' ? scanned - 1 : scanned;
+                    final String line = new String(buffer, position, end, ISO_8859_1);
+                    position += scanned + 1;
+                    return line;
+                }
+            }
+
+            if (limit == buffer.length) {
+                if (position == 0) {
+                    throw new IOException("Response header line exceeded " + buffer.length + " bytes");
+                }
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if (fill() == -1) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads more bytes into the buffer, after the ones not consumed yet.
+     *
+     * @return the number of bytes read, -1 at the end of the stream
+     */
+    private int fill() throws IOException {
+        if (position == limit) {
+            position = 0;
+            limit = 0;
+        }
+        final int n = in.read(buffer, limit, buffer.length - limit);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * Copies up to {@code length} buffered bytes, reading more first if there are none.
+     *
+     * @return the number of bytes copied, -1 at the end of the stream
+     */
+    private int take(final byte[] b, final int offset, final int length) throws IOException {
+        if (position == limit && fill() == -1) {
+            return -1;
+        }
+        final int n = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, b, offset, n);
+        position += n;
+        return n;
+    }
+
+    private abstract static class BodyStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+    }
+
+    private final class FixedLengthStream extends BodyStream {
+        private long remaining;
+
+        FixedLengthStream(final long length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read(final byte[] b, final int offset, final int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+
+            final int n = take(b, offset, (int) Math.min(length, remaining));
+            if (n == -1) {
+                throw new EOFException("Connection closed before the end of the response body");
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+
+    private final class UntilCloseStream extends BodyStream {
+        @Override
+        public int read(final byte[] b, final int offset, final int length) throws IOException {
+            return length == 0 ? 0 : take(b, offset, length);
+        }
+    }
+
+    private final class ChunkedStream extends BodyStream {
+        private final ChunkedDecoder decoder = new ChunkedDecoder();
+
+        private final Decoded decoded = new Decoded();
+
+        @Override
+        public int read(final byte[] b, final int offset, final int length) throws IOException {
+            while (decoded.isEmpty()) {
+                if (decoder.isComplete()) {
+                    return -1;
+                }
+                if (position == limit && fill() == -1) {
+                    throw new EOFException("Connection closed before the last chunk of the response");
+                }
+
+                final ByteBuffer available = ByteBuffer.wrap(buffer, position, limit - position);
+                decoder.decode(available, decoded);
+                position = available.position();
+                if (decoder.isInvalid()) {
+                    throw new IOException(decoder.error());
+                }
+            }
+            return decoded.take(b, offset, length);
+        }
+    }
+
+    /**
+     * Data of the chunks decoded but not read yet.
+     */
+    private static final class Decoded extends OutputStream {
+        private byte[] data = new byte[Const.DEFAULT_READ_BUFFER_SIZE];
+
+        private int start;
+
+        private int end;
+
+        boolean isEmpty() {
+            return start == end;
+        }
+
+        int take(final byte[] b, final int offset, final int length) {
+            final int n = Math.min(length, end - start);
+            System.arraycopy(data, start, b, offset, n);
+            start += n;
+            return n;
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int offset, final int length) {
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+            if (end + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, end + length));
+            }
+            System.arraycopy(b, offset, data, end, length);
+            end += length;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package httpnio.common;
+
+import httpnio.Const;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Header fields of a request or response, looked up by name ignoring case, in the order they were added.
+ * <p>
+ * Fields are kept in flat arrays rather than hashed: there are only a handful of them. Well-known names are replaced by
+ * a single shared instance when added, e.g. {@link Const.Headers#CONTENT_LENGTH}, so looking one of them up is mostly
+ * a reference comparison, and parsing one allocates no string. Values parsed off the wire are kept as slices of the
+ * bytes of the head and only decoded when read.
+ */
+public final class Headers extends AbstractMap<String, String> {
+
+    private static final String[] TOKENS = new String[128];
+
+    static {
+        for (final String name : new String[]{
+            Const.Headers.CONTENT_TYPE,
+            Const.Headers.CONTENT_LENGTH,
+            Const.Headers.CONNECTION,
+            Const.Headers.HOST,
+            Const.Headers.RANGE,
+            Const.Headers.CONTENT_RANGE,
+            Const.Headers.ACCEPT_RANGES,
+            Const.Headers.ETAG,
+            Const.Headers.LAST_MODIFIED,
+            Const.Headers.IF_NONE_MATCH,
+            Const.Headers.IF_MODIFIED_SINCE,
+            Const.Headers.ACCEPT_ENCODING,
+            Const.Headers.CONTENT_ENCODING,
+            Const.Headers.VARY,
+            Const.Headers.TRANSFER_ENCODING,
+            "Accept",
+            "Accept-Language",
+            "Allow",
+            "Authorization",
+            "Cache-Control",
+            "Cookie",
+            "Date",
+            "Expect",
+            "Keep-Alive",
+            "Location",
+            "Origin",
+            "Referer",
+            "Server",
+            "Set-Cookie",
+            "Upgrade",
+            "User-Agent"}) {
+            int slot = hash(name) & (TOKENS.length - 1);
+            while (TOKENS[slot] != null) {
+                slot = (slot + 1) & (TOKENS.length - 1);
+            }
+            TOKENS[slot] = name;
+        }
+    }
+
+    private String[] names;
+
+    private String[] values;
+
+    /**
+     * Bytes the values not decoded yet are read from, and their start and end offsets, two per field. The start is -1
+     * for values set since.
+     */
+    private byte[] source;
+
+    private int[] slices;
+
+    private int size;
+
+    public Headers() {
+        this(8);
+    }
+
+    public Headers(final Map<String, String> headers) {
+        this(Math.max(8, headers.size()));
+        putAll(headers);
+    }
+
+    private Headers(final int capacity) {
+        names = new String[capacity];
+        values = new String[capacity];
+    }
+
+    /**
+     * @param source  bytes of the head
+     * @param offsets name start, name end, value start and value end of each field in the source, four per field
+     * @param count   number of fields
+     */
+    static Headers parsed(final byte[] source, final int[] offsets, final int count) {
+        final Headers headers = new Headers(Math.max(8, count));
+        headers.source = source;
+        headers.slices = new int[2 * headers.names.length];
+        for (int i = 0; i < count; i++) {
+            final int nameStart = offsets[4 * i];
+            final int nameEnd = offsets[4 * i + 1];
+            final String token = token(source, nameStart, nameEnd);
+            final String name = token != null ? token : new String(source, nameStart, nameEnd - nameStart, ISO_8859_1);
+
+            final int index = headers.indexOf(name);
+            final int slot = index != -1 ? index : headers.size++;
+            headers.names[slot] = name;
+            headers.values[slot] = null;
+            headers.slices[2 * slot] = offsets[4 * i + 2];
+            headers.slices[2 * slot + 1] = offsets[4 * i + 3];
+        }
+        return headers;
+    }
+
+    /**
+     * @return the shared instance of the well-known header name, or the name itself
+     */
+    public static String canonical(final String name) {
+        for (int slot = hash(name) & (TOKENS.length - 1); TOKENS[slot] != null; slot = (slot + 1) & (TOKENS.length - 1)) {
+            if (TOKENS[slot].equalsIgnoreCase(name)) {
+                return TOKENS[slot];
+            }
+        }
+        return name;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public String name(final int index) {
+        return names[index];
+    }
+
+    public String value(final int index) {
+        if (values[index] == null && slices != null && slices[2 * index] != -1) {
+            values[index] = new String(source, slices[2 * index], slices[2 * index + 1] - slices[2 * index], ISO_8859_1);
+        }
+        return values[index];
+    }
+
+    @Override
+    public String get(final Object name) {
+        final int index = indexOf(name);
+        return index != -1 ? value(index) : null;
+    }
+
+    @Override
+    public boolean containsKey(final Object name) {
+        return indexOf(name) != -1;
+    }
+
+    @Override
+    public String put(final String name, final String value) {
+        final int index = indexOf(name);
+        if (index != -1) {
+            final String previous = value(index);
+            set(index, value);
+            return previous;
+        }
+
+        if (size == names.length) {
+            names = Arrays.copyOf(names, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+            if (slices != null) {
+                slices = Arrays.copyOf(slices, 4 * size);
+            }
+        }
+        names[size] = canonical(name);
+        set(size++, value);
+        return null;
+    }
+
+    @Override
+    public String remove(final Object name) {
+        final int index = indexOf(name);
+        if (index == -1) {
+            return null;
+        }
+
+        final String previous = value(index);
+        remove(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    private boolean removable;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        removable = true;
+                        return new SimpleImmutableEntry<>(names[next], value(next++));
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!removable) {
+                            throw new IllegalStateException();
+                        }
+                        removable = false;
+                        Headers.this.remove(--next);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(final Object name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        if (name instanceof String) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equalsIgnoreCase((String) name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void set(final int index, final String value) {
+        values[index] = value;
+        if (slices != null) {
+            slices[2 * index] = -1;
+        }
+    }
+
+    private void remove(final int index) {
+        final int moved = size - index - 1;
+        System.arraycopy(names, index + 1, names, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        if (slices != null) {
+            System.arraycopy(slices, 2 * index + 2, slices, 2 * index, 2 * moved);
+        }
+        size--;
+        names[size] = null;
+        values[size] = null;
+    }
+
+    private static String token(final byte[] bytes, final int start, final int end) {
+        for (int slot = hash(bytes, start, end) & (TOKENS.length - 1); TOKENS[slot] != null; slot = (slot + 1) & (TOKENS.length - 1)) {
+            if (equalsIgnoreCase(TOKENS[slot], bytes, start, end)) {
+                return TOKENS[slot];
+            }
+        }
+        return null;
+    }
+
+    private static int hash(final String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + toLowerCase(name.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(final byte[] bytes, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerCase((char) (bytes[i] & 0xff));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(final String name, final byte[] bytes, final int start, final int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (toLowerCase(name.charAt(i)) != toLowerCase((char) (bytes[start + i] & 0xff))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerCase(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -83,10 +83,6 @@ public class Packet {
         return new String(Objects.requireNonNullElse(payload, "null".getBytes()), charset);
     }
 
-    public String payload() {
-        return payload(UTF_8);
-    }
-
     public static Packet of(final ByteBuffer buffer) throws IOException {
         if (buffer.limit() < MIN_LEN || buffer.limit() > MAX_LEN) {
             throw new IOException("Invalid length of " + buffer.limit());
@@ -155,7 +151,7 @@ public class Packet {
             Objects.requireNonNullElse(peerAddress, "null"),
             state,
             payload != null ? payload.length : 0,
-            payload != null ? payload.length != 0 ? payload().replaceAll("\n", " ")
-                .substring(0, Math.min(20, payload().length())) : "n/a" : "null");
+            payload != null ? payload.length != 0 ? payload(UTF_8).replaceAll("\n", " ")
+                .substring(0, Math.min(20, payload(UTF_8).length())) : "n/a" : "null");
     }
 }
@@ -39,4 +39,24 @@ public final class PacketUtil {
 
         return buffers.toArray(new ByteBuffer[0]);
     }
+
+    /**
+     * Payloads of the packets, in order, as one array. Missing packets are skipped.
+     */
+    public static byte[] join(final List<Packet> packets) {
+        int length = 0;
+        for (final Packet packet : packets) {
+            if (packet != null && packet.payload() != null) {
+                length += packet.payload().length;
+            }
+        }
+
+        final ByteBuffer data = ByteBuffer.allocate(length);
+        for (final Packet packet : packets) {
+            if (packet != null && packet.payload() != null) {
+                data.put(packet.payload());
+            }
+        }
+        return data.array();
+    }
 }
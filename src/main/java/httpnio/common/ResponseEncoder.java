@@ -0,0 +1,205 @@
+package httpnio.common;
+
+import httpnio.Const;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Writes the status line and headers of a response straight into a buffer. The status lines and header names the
+ * server sends are kept encoded, and the rest is written a character at a time, so encoding allocates nothing: sized
+ * with {@link #headLength(HTTPResponse)}, the buffer can come from a pool.
+ * <p>
+ * Text is encoded as ISO-8859-1, characters outside of it as {@code ?}.
+ */
+public final class ResponseEncoder {
+
+    private static final byte[] CRLF = Const.CRLF.getBytes(ISO_8859_1);
+
+    private static final byte[] VERSION = "HTTP/1.1 ".getBytes(ISO_8859_1);
+
+    private static final byte[] CHUNKED = "chunked".getBytes(ISO_8859_1);
+
+    private static final Map<String, StatusLine> STATUS_LINES = new HashMap<>();
+
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    static {
+        for (final String[] status : new String[][]{
+            {"200", "OK"},
+            {"206", "PARTIAL CONTENT"},
+            {"304", "NOT MODIFIED"},
+            {"400", "BAD REQUEST"},
+            {"401", "UNAUTHORIZED ACCESS"},
+            {"404", "NOT FOUND"},
+            {"405", "METHOD NOT ALLOWED"},
+            {"416", "RANGE NOT SATISFIABLE"},
+            {"500", "INTERNAL SERVER ERROR"}}) {
+            STATUS_LINES.put(status[0], new StatusLine(status[1], ("HTTP/1.1 " + status[0] + " " + status[1] + Const.CRLF).getBytes(ISO_8859_1)));
+        }
+
+        for (final String name : new String[]{
+            "Accept",
+            "Allow",
+            Const.Headers.CONTENT_TYPE,
+            Const.Headers.CONTENT_LENGTH,
+            Const.Headers.CONNECTION,
+            Const.Headers.CONTENT_RANGE,
+            Const.Headers.ACCEPT_RANGES,
+            Const.Headers.ETAG,
+            Const.Headers.LAST_MODIFIED,
+            Const.Headers.CONTENT_ENCODING,
+            Const.Headers.VARY,
+            Const.Headers.TRANSFER_ENCODING}) {
+            HEADER_NAMES.put(name, (name + ": ").getBytes(ISO_8859_1));
+        }
+    }
+
+    private ResponseEncoder() {
+    }
+
+    /**
+     * @return the number of bytes {@link #encodeHead(HTTPResponse, ByteBuffer)} writes
+     */
+    public static int headLength(final HTTPResponse response) {
+        final StatusLine cached = STATUS_LINES.get(response.statusCode());
+        int length = cached != null && cached.message.equals(response.statusMessage())
+            ? cached.bytes.length
+            : VERSION.length + length(response.statusCode()) + 1 + length(response.statusMessage()) + CRLF.length;
+
+        final Headers headers = response.headers();
+        for (int i = 0; i < headers.size(); i++) {
+            length += headers.name(i).length() + 2 + length(headers.value(i)) + CRLF.length;
+        }
+
+        if (!headers.containsKey(Const.Headers.CONTENT_LENGTH)) {
+            if (response.chunks() != null) {
+                length += Const.Headers.TRANSFER_ENCODING.length() + 2 + CHUNKED.length + CRLF.length;
+            } else {
+                final long contentLength = contentLength(response);
+                if (contentLength >= 0) {
+                    length += Const.Headers.CONTENT_LENGTH.length() + 2 + digits(contentLength) + CRLF.length;
+                }
+            }
+        }
+
+        return length + CRLF.length;
+    }
+
+    /**
+     * Writes the status line and headers, then the blank line ending them. A Content-Length or Transfer-Encoding
+     * header is added for the body if none is set.
+     *
+     * @return the buffer, positioned after the head
+     */
+    public static ByteBuffer encodeHead(final HTTPResponse response, final ByteBuffer out) {
+        final StatusLine cached = STATUS_LINES.get(response.statusCode());
+        if (cached != null && cached.message.equals(response.statusMessage())) {
+            out.put(cached.bytes);
+        } else {
+            out.put(VERSION);
+            put(out, response.statusCode());
+            out.put((byte) ' ');
+            put(out, response.statusMessage());
+            out.put(CRLF);
+        }
+
+        final Headers headers = response.headers();
+        for (int i = 0; i < headers.size(); i++) {
+            putName(out, headers.name(i));
+            put(out, headers.value(i));
+            out.put(CRLF);
+        }
+
+        if (!headers.containsKey(Const.Headers.CONTENT_LENGTH)) {
+            if (response.chunks() != null) {
+                putName(out, Const.Headers.TRANSFER_ENCODING);
+                out.put(CHUNKED);
+                out.put(CRLF);
+            } else {
+                final long contentLength = contentLength(response);
+                if (contentLength >= 0) {
+                    putName(out, Const.Headers.CONTENT_LENGTH);
+                    put(out, contentLength);
+                    out.put(CRLF);
+                }
+            }
+        }
+
+        return out.put(CRLF);
+    }
+
+    /**
+     * @return the length of the body the head announces, or -1 if the response has none
+     */
+    private static long contentLength(final HTTPResponse response) {
+        if (response.parts() != null) {
+            long length = 0;
+            for (final var part : response.parts()) {
+                length += part.prefix().length() + (part.region() != null ? part.region().count() : 0);
+            }
+            return length;
+        }
+        if (response.file() != null) {
+            return response.file().count();
+        }
+        return response.body() != null ? response.body().length : -1;
+    }
+
+    private static void putName(final ByteBuffer out, final String name) {
+        final byte[] cached = HEADER_NAMES.get(name);
+        if (cached != null) {
+            out.put(cached);
+        } else {
+            put(out, name);
+            out.put((byte) ':').put((byte) ' ');
+        }
+    }
+
+    private static void put(final ByteBuffer out, final String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            out.put(c <= 0xff ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void put(final ByteBuffer out, final long value) {
+        final int digits = digits(value);
+        final int start = out.position();
+        long remaining = value;
+        for (int i = digits - 1; i >= 0; i--) {
+            out.put(start + i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        out.position(start + digits);
+    }
+
+    private static int length(final String text) {
+        return text != null ? text.length() : 0;
+    }
+
+    private static int digits(final long value) {
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static final class StatusLine {
+        private final String message;
+
+        private final byte[] bytes;
+
+        StatusLine(final String message, final byte[] bytes) {
+            this.message = message;
+            this.bytes = bytes;
+        }
+    }
+}
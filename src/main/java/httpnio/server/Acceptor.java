@@ -0,0 +1,78 @@
+package httpnio.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+@Slf4j
+class Acceptor extends Thread {
+
+    private final ServerSocketChannel serverChannel;
+
+    private final Reactor[] reactors;
+
+    private int next = 0;
+
+    private volatile boolean isRunning = true;
+
+    Acceptor(final Server.Configuration configuration, final Reactor[] reactors) throws IOException {
+        super("acceptor-thread");
+        this.reactors = reactors;
+
+        log.debug("starting server with acceptor thread and {} reactor threads", reactors.length);
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(configuration.port()));
+    }
+
+    @Override
+    public synchronized void start() {
+        for (final var reactor : reactors) {
+            reactor.start();
+        }
+        super.start();
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                leastLoaded().register(channel);
+            } catch (final IOException e) {
+                if (isRunning) {
+                    log.error(e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        isRunning = false;
+        try {
+            serverChannel.close();
+        } catch (final IOException e) {
+            log.error(e.getMessage());
+        }
+        for (final var reactor : reactors) {
+            reactor.shutdown();
+        }
+    }
+
+    private Reactor leastLoaded() {
+        // Round-robin start so that equally loaded reactors take turns
+        Reactor chosen = reactors[next];
+        for (int i = 1; i < reactors.length; i++) {
+            final Reactor candidate = reactors[(next + i) % reactors.length];
+            if (candidate.load() < chosen.load()) {
+                chosen = candidate;
+            }
+        }
+        next = (next + 1) % reactors.length;
+        return chosen;
+    }
+}
@@ -0,0 +1,278 @@
+package httpnio.server;
+
+import httpnio.common.FileRegion;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Read-only set of files packed into a single file, served without a file system lookup per request: a sorted index
+ * of paths, memory-mapped once, locates each file as a region of the archive, sent from the page cache by
+ * {@code transferTo}.
+ * <p>
+ * The archive holds the content of every file back to back, then their paths (e.g. {@code /some/hello.txt}) in UTF-8,
+ * then one fixed size record per file in path order, then a footer locating the paths and records:
+ * <pre>
+ * record: path offset (4) | path length (4) | content offset (8) | content length (8) | last modified (8) | CRC-32 (4) | 0 (4)
+ * footer: records offset (8) | paths offset (8) | count (4) | version (4) | "HNIOPACK"
+ * </pre>
+ * Paths are compared as unsigned bytes, so they are ordered by code point.
+ */
+@Slf4j
+final class Archive implements Closeable {
+
+    private static final byte[] MAGIC = "HNIOPACK".getBytes(US_ASCII);
+
+    private static final int VERSION = 1;
+
+    private static final int RECORD_SIZE = 40;
+
+    private static final int FOOTER_SIZE = 32;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer records;
+
+    private final MappedByteBuffer paths;
+
+    private final int count;
+
+    private Archive(final Path path, final FileChannel channel, final MappedByteBuffer records, final MappedByteBuffer paths, final int count) {
+        this.path = path;
+        this.channel = channel;
+        this.records = records;
+        this.paths = paths;
+        this.count = count;
+    }
+
+    static Archive open(final Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("Not an archive: " + path);
+            }
+
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (footer.hasRemaining()) {
+                channel.read(footer, size - FOOTER_SIZE + footer.position());
+            }
+            footer.flip();
+            final long recordsOffset = footer.getLong();
+            final long pathsOffset = footer.getLong();
+            final int count = footer.getInt();
+            final int version = footer.getInt();
+            final byte[] magic = new byte[MAGIC.length];
+            footer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Not an archive, or of an unsupported version: " + path);
+            }
+            if (recordsOffset - pathsOffset > Integer.MAX_VALUE || (long) count * RECORD_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Archive index too large to be mapped: " + path);
+            }
+
+            final MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, recordsOffset, (long) count * RECORD_SIZE);
+            final MappedByteBuffer paths = channel.map(FileChannel.MapMode.READ_ONLY, pathsOffset, recordsOffset - pathsOffset);
+            log.debug("opened archive {} of {} files", path, count);
+            return new Archive(path, channel, records, paths, count);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Packs the regular files under the directory into an archive, written next to it and renamed into place once
+     * complete.
+     *
+     * @return the number of files packed
+     */
+    static int build(final Path directory, final Path archive) throws IOException {
+        final Path root = directory.toRealPath();
+        final Path target = archive.toAbsolutePath().normalize();
+        final List<Packed> files = new ArrayList<>();
+        try (final Stream<Path> walk = Files.walk(root)) {
+            for (final Path file : (Iterable<Path>) walk::iterator) {
+                if (Files.isRegularFile(file) && !file.equals(target) && !AtomicWrite.isPartial(file.getFileName().toString())) {
+                    final StringBuilder key = new StringBuilder();
+                    for (final Path name : root.relativize(file)) {
+                        key.append('/').append(name);
+                    }
+                    files.add(new Packed(file, key.toString().getBytes(UTF_8)));
+                }
+            }
+        }
+        files.sort((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+
+        final AtomicWrite write = AtomicWrite.open(archive);
+        try {
+            long offset = 0;
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (final var file : files) {
+                final CRC32 crc = new CRC32();
+                file.offset = offset;
+                try (final FileChannel in = FileChannel.open(file.file, StandardOpenOption.READ)) {
+                    while (in.read(buffer) != -1) {
+                        buffer.flip();
+                        crc.update(buffer.duplicate());
+                        file.length += buffer.remaining();
+                        write.write(buffer);
+                        buffer.clear();
+                    }
+                }
+                file.crc = (int) crc.getValue();
+                file.lastModified = Files.readAttributes(file.file, BasicFileAttributes.class).lastModifiedTime().toMillis();
+                offset += file.length;
+            }
+
+            final long pathsOffset = offset;
+            int pathOffset = 0;
+            for (final var file : files) {
+                write.write(ByteBuffer.wrap(file.key));
+                file.pathOffset = pathOffset;
+                pathOffset = Math.addExact(pathOffset, file.key.length);
+            }
+
+            final long recordsOffset = pathsOffset + pathOffset;
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+            for (final var file : files) {
+                record.clear();
+                record.putInt(file.pathOffset)
+                    .putInt(file.key.length)
+                    .putLong(file.offset)
+                    .putLong(file.length)
+                    .putLong(file.lastModified)
+                    .putInt(file.crc)
+                    .putInt(0)
+                    .flip();
+                write.write(record);
+            }
+
+            write.write(ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.BIG_ENDIAN)
+                .putLong(recordsOffset)
+                .putLong(pathsOffset)
+                .putInt(files.size())
+                .putInt(VERSION)
+                .put(MAGIC)
+                .flip());
+        } catch (final IOException | RuntimeException e) {
+            write.abort();
+            throw e;
+        }
+        write.commit(() -> {
+        });
+        return files.size();
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return the index of the file at the path, or {@code -(insertion point) - 1} if there is none
+     */
+    int find(final String path) {
+        return find(path.getBytes(UTF_8));
+    }
+
+    /**
+     * @return the index of the first file whose path sorts at or after the given one
+     */
+    int ceiling(final String path) {
+        final int found = find(path);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    String path(final int index) {
+        final byte[] bytes = new byte[records.getInt(index * RECORD_SIZE + 4)];
+        paths.get(records.getInt(index * RECORD_SIZE), bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    FileRegion content(final int index) {
+        return new FileRegion(path, records.getLong(index * RECORD_SIZE + 8), records.getLong(index * RECORD_SIZE + 16), channel);
+    }
+
+    long lastModified(final int index) {
+        return records.getLong(index * RECORD_SIZE + 24);
+    }
+
+    int crc(final int index) {
+        return records.getInt(index * RECORD_SIZE + 32);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int find(final byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compare(middle, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(final int index, final byte[] key) {
+        final int offset = records.getInt(index * RECORD_SIZE);
+        final int length = records.getInt(index * RECORD_SIZE + 4);
+        final int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            final int comparison = Byte.compareUnsigned(paths.get(offset + i), key[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static final class Packed {
+        private final Path file;
+
+        private final byte[] key;
+
+        private long offset;
+
+        private long length;
+
+        private long lastModified;
+
+        private int crc;
+
+        private int pathOffset;
+
+        Packed(final Path file, final byte[] key) {
+            this.file = file;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.ChunkedBody;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Paths of the files of an archive under a directory, one per line, read off its sorted index: the first path listed,
+ * after the prefix or the cursor, is found by a binary search and the listing ends at the first path past the prefix.
+ * Takes the same parameters as a {@link DirectoryListing}, although paths are ordered by code point over their whole
+ * length rather than a directory at a time.
+ */
+class ArchiveListing implements ChunkedBody {
+
+    private static final int CHUNK_SIZE = Const.DEFAULT_READ_BUFFER_SIZE;
+
+    private final Archive archive;
+
+    private final String key;
+
+    /**
+     * Prefix shared by every path listed, of the directory's path and the prefix asked for the longer.
+     */
+    private final String bound;
+
+    private final int depth;
+
+    private int index;
+
+    private int remaining;
+
+    /**
+     * @param key    path of the directory, empty for the root
+     * @param prefix only paths starting with it are listed
+     * @param cursor only paths sorting after it are listed, null to start from the first one
+     * @param limit  number of paths listed at most
+     * @param depth  levels of directories listed down, 1 to only list the files directly in the directory
+     */
+    ArchiveListing(
+        final Archive archive,
+        final String key,
+        final String prefix,
+        final String cursor,
+        final int limit,
+        final int depth) {
+        this.archive = archive;
+        this.key = key + "/";
+        this.depth = depth;
+        remaining = limit;
+
+        bound = prefix.startsWith(this.key) ? prefix : this.key.startsWith(prefix) ? this.key : null;
+        index = bound != null ? archive.ceiling(bound) : archive.count();
+        if (cursor != null) {
+            final int found = archive.find(cursor);
+            index = Math.max(index, found >= 0 ? found + 1 : -found - 1);
+        }
+    }
+
+    @Override
+    public ByteBuffer next() {
+        final StringBuilder chunk = new StringBuilder();
+        while (chunk.length() < CHUNK_SIZE && remaining > 0 && index < archive.count()) {
+            final String path = archive.path(index++);
+            if (!path.startsWith(bound)) {
+                index = archive.count();
+                break;
+            }
+            if (levels(path) <= depth) {
+                chunk.append(path).append('\n');
+                remaining--;
+            }
+        }
+        return chunk.length() > 0 ? ByteBuffer.wrap(chunk.toString().getBytes(UTF_8)) : null;
+    }
+
+    private int levels(final String path) {
+        int levels = 0;
+        for (int i = key.length() - 1; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                levels++;
+            }
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,127 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.ApplicationProtocol;
+import httpnio.common.FileRegion;
+import httpnio.common.HTTPRequest;
+import httpnio.common.HTTPResponse;
+
+import java.util.Map;
+
+/**
+ * Serves the files of an {@link Archive}, read-only: a GET is a lookup in the archive's index answered with a region
+ * of the archive, and a directory, any path some files are under, is listed like the file server does.
+ */
+class ArchiveProtocol implements ApplicationProtocol.Response {
+
+    private final Archive archive;
+
+    /**
+     * @param archive shared by every copy of the protocol, opened for as long as the server runs
+     */
+    ArchiveProtocol(final Archive archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public HTTPResponse response(final HTTPRequest request) {
+        switch (request.method()) {
+            case GET:
+                return get(request);
+            default:
+                return readOnly();
+        }
+    }
+
+    @Override
+    public ApplicationProtocol.Upload upload(final HTTPRequest request) {
+        return ApplicationProtocol.Upload.discarding(readOnly());
+    }
+
+    @Override
+    public ApplicationProtocol.Response copy() {
+        return new ArchiveProtocol(archive);
+    }
+
+    private HTTPResponse get(final HTTPRequest request) {
+        final int query = request.path().indexOf('?');
+        final String path = query == -1 ? request.path() : request.path().substring(0, query);
+
+        final int index = archive.find(path);
+        if (index < 0) {
+            final String key = path.replaceAll("/+$", "");
+            final int first = archive.ceiling(key + "/");
+            if (first < archive.count() && archive.path(first).startsWith(key + "/")) {
+                return list(key, query == -1 ? "" : request.path().substring(query + 1));
+            }
+
+            return StaticResponse.NOT_FOUND.response(request.path());
+        }
+
+        final FileRegion content = archive.content(index);
+        final String etag = String.format("\"%08x-%x\"", archive.crc(index), content.count());
+        final String lastModified = FileServerProtocol.httpDate(archive.lastModified(index));
+
+        if (FileServerProtocol.notModified(request, etag, archive.lastModified(index))) {
+            return HTTPResponse.builder()
+                .statusCode("304")
+                .statusMessage("NOT MODIFIED")
+                .headers(Map.of(
+                    Const.Headers.ETAG, etag,
+                    Const.Headers.LAST_MODIFIED, lastModified
+                ))
+                .build();
+        }
+
+        final String range = request.header(Const.Headers.RANGE);
+        if (range != null) {
+            final HTTPResponse partial = FileServerProtocol.partial(content, range, etag, lastModified);
+            if (partial != null) {
+                return partial;
+            }
+        }
+
+        return HTTPResponse.builder()
+            .statusCode("200")
+            .statusMessage("OK")
+            .headers(Map.of(
+                "Accept", "*/*",
+                Const.Headers.ACCEPT_RANGES, "bytes",
+                Const.Headers.ETAG, etag,
+                Const.Headers.LAST_MODIFIED, lastModified))
+            .file(content)
+            .build();
+    }
+
+    private HTTPResponse list(final String key, final String query) {
+        final Map<String, String> parameters = FileServerProtocol.parameters(query);
+        final String prefix = parameters.getOrDefault("prefix", "");
+        final int limit;
+        final int depth;
+        try {
+            limit = Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(Integer.MAX_VALUE)));
+            depth = Integer.parseInt(parameters.getOrDefault("depth", String.valueOf(DirectoryListing.MAX_DEPTH)));
+        } catch (final NumberFormatException e) {
+            return StaticResponse.BAD_LISTING.response(e.getMessage());
+        }
+
+        return HTTPResponse.builder()
+            .statusCode("200")
+            .statusMessage("OK")
+            .headers(Map.of(
+                "Accept", "*/*"
+            ))
+            .chunks(new ArchiveListing(
+                archive,
+                key,
+                prefix.startsWith("/") ? prefix : key + "/" + prefix,
+                parameters.get("cursor"),
+                limit,
+                depth))
+            .build();
+    }
+
+    private static HTTPResponse readOnly() {
+        return StaticResponse.READ_ONLY.response();
+    }
+}
@@ -0,0 +1,149 @@
+package httpnio.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replacement of a file's content, written to a partial file next to it and renamed over it once complete. Readers
+ * see either the previous content or the new one, never a mix, and never wait on a writer.
+ * <p>
+ * Commits to the same path are serialized, along with whatever has to follow the rename (e.g. invalidating cached
+ * copies), by a fixed set of locks picked by the hash of the path. Writes to different paths rarely share a lock, and
+ * the content itself is written without holding any.
+ * <p>
+ * The permissions, owner and group of the file replaced are carried over to its new content, where the file system
+ * has POSIX attributes: elsewhere the new file gets the defaults of a newly created one. The owner and group are only
+ * kept if the server is allowed to give the file away, the file belonging to the server's user otherwise.
+ */
+@Slf4j
+final class AtomicWrite {
+
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[256];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private final Path target;
+
+    private final Path partial;
+
+    private final FileChannel channel;
+
+    private long bytesWritten = 0;
+
+    private AtomicWrite(final Path target, final Path partial, final FileChannel channel) {
+        this.target = target;
+        this.partial = partial;
+        this.channel = channel;
+    }
+
+    static AtomicWrite open(final Path target) throws IOException {
+        final Path partial = target.resolveSibling(
+            "." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + PARTIAL_SUFFIX);
+        return new AtomicWrite(target, partial, FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Whether the file is the partial file of a write in progress, or left over by one that was interrupted.
+     */
+    static boolean isPartial(final String fileName) {
+        return fileName.startsWith(".") && fileName.endsWith(PARTIAL_SUFFIX);
+    }
+
+    void write(final ByteBuffer content) throws IOException {
+        while (content.hasRemaining()) {
+            bytesWritten += channel.write(content);
+        }
+    }
+
+    Path target() {
+        return target;
+    }
+
+    /**
+     * Syncs the content written so far to the disk.
+     */
+    void force() throws IOException {
+        channel.force(true);
+    }
+
+    /**
+     * Renames the partial file over the target.
+     *
+     * @param committed run right after the rename, before any other write to the same path is committed
+     * @return the number of bytes written
+     */
+    long commit(final Runnable committed) throws IOException {
+        channel.close();
+
+        final ReentrantLock lock = lock(target);
+        lock.lock();
+        try {
+            copyAttributes();
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            committed.run();
+        } catch (final IOException e) {
+            abort();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        return bytesWritten;
+    }
+
+    void abort() {
+        try {
+            channel.close();
+            Files.deleteIfExists(partial);
+        } catch (final IOException ignored) {
+            // Nothing left to do with a partially written file
+        }
+    }
+
+    private void copyAttributes() throws IOException {
+        final PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view == null) {
+            return;
+        }
+
+        final PosixFileAttributes attributes;
+        try {
+            attributes = view.readAttributes();
+        } catch (final NoSuchFileException e) {
+            return; // Nothing replaced
+        }
+
+        final PosixFileAttributeView copy = Files.getFileAttributeView(partial, PosixFileAttributeView.class);
+        try {
+            // Before the permissions, as changing the owner may clear some of them
+            copy.setGroup(attributes.group());
+            copy.setOwner(attributes.owner());
+        } catch (final FileSystemException e) {
+            log.debug("could not keep the owner of {}: {}", target, e.getMessage());
+        }
+        copy.setPermissions(attributes.permissions());
+    }
+
+    private static ReentrantLock lock(final Path target) {
+        final int hash = target.normalize().hashCode();
+        return LOCKS[(hash ^ (hash >>> 16)) & (LOCKS.length - 1)];
+    }
+}
@@ -0,0 +1,37 @@
+package httpnio.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Direct buffers of a fixed size, handed back once written out and handed out again, so encoding a response allocates
+ * nothing once enough of them are in use. Buffers beyond the pool's capacity are left to the garbage collector.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+
+    private final BlockingQueue<ByteBuffer> free;
+
+    BufferPool(final int bufferSize, final int capacity) {
+        this.bufferSize = bufferSize;
+        free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return an empty buffer of {@link #bufferSize()} bytes
+     */
+    ByteBuffer acquire() {
+        final ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void release(final ByteBuffer buffer) {
+        free.offer(buffer);
+    }
+}
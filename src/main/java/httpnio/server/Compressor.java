@@ -0,0 +1,262 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.HTTPResponse;
+import httpnio.common.Headers;
+import httpnio.common.ResponseEncoder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates a Content-Encoding for file responses and keeps the compressed variants, keyed by file and coding and
+ * validated against the file's metadata, so each version of a file is compressed once.
+ * <p>
+ * Compression never runs on the thread serving the request: a variant that is not ready yet is compressed on the
+ * compressor's own threads while the request, and any other until the variant is ready, is answered uncompressed.
+ */
+@Slf4j
+class Compressor {
+
+    static final String GZIP = "gzip";
+
+    static final String DEFLATE = "deflate";
+
+    private static final long MIN_SIZE = 256;
+
+    private static final long MAX_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Weight of a variant not worth keeping compressed beyond its key, so that remembering many of them still counts
+     * toward the capacity.
+     */
+    private static final long MARKER_OVERHEAD = 64;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+        "gz", "tgz", "zip", "jar", "bz2", "xz", "7z", "zst", "br", "rar",
+        "png", "jpg", "jpeg", "gif", "webp", "avif", "heic",
+        "mp3", "mp4", "m4a", "m4v", "ogg", "webm", "mkv", "mov",
+        "woff", "woff2", "pdf");
+
+    private final long capacity;
+
+    private final LinkedHashMap<String, Variant> variants = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor;
+
+    private long size = 0;
+
+    Compressor(final long capacity) {
+        this.capacity = capacity;
+        executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+            final Thread thread = new Thread(runnable, "compression-thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A coding listed explicitly gets its own quality, {@code *} only standing for the ones that are not, and
+     * qualities outside of 0 to 1 are brought back within it.
+     *
+     * @return the preferred coding among the ones supported, or null if the client accepts none of them
+     */
+    static String negotiate(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (final String candidate : acceptEncoding.split(",")) {
+            final String[] parameters = candidate.split(";");
+            final String coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                final String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (final NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            quality = Double.isNaN(quality) ? 0 : Math.min(1, Math.max(0, quality));
+
+            switch (coding) {
+                case GZIP:
+                    gzip = quality;
+                    break;
+                case DEFLATE:
+                    deflate = quality;
+                    break;
+                case "*":
+                    any = quality;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (gzip < 0) {
+            gzip = Math.max(0, any);
+        }
+        if (deflate < 0) {
+            deflate = Math.max(0, any);
+        }
+        if (gzip == 0 && deflate == 0) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * Entity tag of the variant, distinct from the identity one as the bytes differ.
+     */
+    static String etag(final String etag, final String coding) {
+        return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+    }
+
+    /**
+     * @return the entity tag of the identity response a variant's entity tag was derived from
+     */
+    static String identity(final String etag) {
+        for (final String coding : new String[]{GZIP, DEFLATE}) {
+            final String suffix = "-" + coding + "\"";
+            if (etag.endsWith(suffix)) {
+                return etag.substring(0, etag.length() - suffix.length()) + "\"";
+            }
+        }
+        return etag;
+    }
+
+    static boolean compressible(final Path file, final long size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            return false;
+        }
+
+        final String name = file.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return dot == -1 || !COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param identity the uncompressed response for the whole file
+     * @return the compressed response if it is ready, else null after scheduling its compression
+     */
+    HTTPResponse variant(
+        final String path,
+        final String coding,
+        final PathIndex.Entry metadata,
+        final HTTPResponse identity) {
+        final String key = coding + ":" + path;
+        synchronized (this) {
+            final Variant variant = variants.get(key);
+            if (variant != null && variant.matches(metadata)) {
+                return variant.response != null ? variant.response : identity;
+            }
+        }
+
+        if (pending.add(key)) {
+            executor.execute(() -> {
+                try {
+                    compress(key, coding, metadata, identity);
+                } catch (final IOException e) {
+                    log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        }
+        return null;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void compress(
+        final String key,
+        final String coding,
+        final PathIndex.Entry metadata,
+        final HTTPResponse identity) throws IOException {
+        final byte[] content = identity.file().read();
+        final var compressed = new ByteArrayOutputStream(content.length / 2);
+        try (final OutputStream out = coding.equals(GZIP) ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+            out.write(content);
+        }
+
+        if (compressed.size() >= content.length) {
+            // Not worth it, remembered as such so the file is not compressed again until it changes
+            put(key, new Variant(null, metadata, 2L * key.length() + MARKER_OVERHEAD));
+            return;
+        }
+
+        final var headers = new Headers(identity.headers());
+        headers.put(Const.Headers.CONTENT_ENCODING, coding);
+        headers.put(Const.Headers.CONTENT_LENGTH, String.valueOf(compressed.size()));
+        headers.put(Const.Headers.ETAG, etag(identity.headers().get(Const.Headers.ETAG), coding));
+        headers.remove(Const.Headers.ACCEPT_RANGES);
+        final HTTPResponse variant = identity.toBuilder().headers(headers).file(null).build();
+
+        final ByteBuffer encoded = ResponseEncoder.encodeHead(variant, ByteBuffer.allocateDirect(ResponseEncoder.headLength(variant) + compressed.size()))
+            .put(compressed.toByteArray())
+            .flip();
+        put(key, new Variant(variant.toBuilder().encoded(encoded).build(), metadata, encoded.capacity()));
+        log.debug("compressed {} from {} to {} bytes", key, content.length, compressed.size());
+    }
+
+    private synchronized void put(final String key, final Variant variant) {
+        if (variant.weight > capacity) {
+            return;
+        }
+
+        final Variant replaced = variants.put(key, variant);
+        size += variant.weight - (replaced != null ? replaced.weight : 0);
+        final var eldest = variants.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            size -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    private static final class Variant {
+        /**
+         * Null if compressing the file was not worth it, the identity response being served instead.
+         */
+        private final HTTPResponse response;
+
+        private final long lastModified;
+
+        private final long fileSize;
+
+        private final long weight;
+
+        Variant(final HTTPResponse response, final PathIndex.Entry metadata, final long weight) {
+            this.response = response;
+            lastModified = metadata.lastModified();
+            fileSize = metadata.size();
+            this.weight = weight;
+        }
+
+        boolean matches(final PathIndex.Entry metadata) {
+            return metadata.lastModified() == lastModified && metadata.size() == fileSize;
+        }
+    }
+}
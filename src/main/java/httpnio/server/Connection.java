@@ -0,0 +1,628 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.ApplicationProtocol;
+import httpnio.common.FileRegion;
+import httpnio.common.HTTPMethod;
+import httpnio.common.HTTPRequest;
+import httpnio.common.HTTPRequestParser;
+import httpnio.common.HTTPResponse;
+import httpnio.common.Headers;
+import httpnio.common.ResponseEncoder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+@Slf4j
+class Connection {
+
+    private static final byte[] CONTINUE = ("HTTP/1.1 100 Continue" + Const.CRLF + Const.CRLF).getBytes(ISO_8859_1);
+
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * Files up to this size are read into the response buffer when pipelining, so a batch of small responses can
+     * leave in a single gathering write instead of one transferTo per file.
+     */
+    private static final int MAX_INLINE_FILE_SIZE = Const.DEFAULT_READ_BUFFER_SIZE;
+
+    /**
+     * Bodies not streamed to an upload are read into memory whole, so requests with a larger one are rejected.
+     */
+    private static final int MAX_BUFFERED_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * The incoming buffer is never grown past this size, room enough for a full request head and buffered body.
+     */
+    private static final int MAX_INCOMING_SIZE = 2 * MAX_BUFFERED_BODY_SIZE;
+
+    /**
+     * Buffers response heads, with inlined bodies when they fit, are encoded into. Shared by all connections and
+     * released as soon as written out.
+     */
+    private static final BufferPool BUFFERS = new BufferPool(2 * Const.DEFAULT_READ_BUFFER_SIZE, 1024);
+
+    /**
+     * Prepares the responses of pipelined requests concurrently in blocking mode. Shared by all connections, virtual
+     * threads since the work is mostly blocking file access.
+     */
+    private static final ExecutorService PIPELINE = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final SocketChannel channel;
+
+    private final SelectionKey key;
+
+    private final Reactor reactor;
+
+    private final ApplicationProtocol.Response applicationProtocol;
+
+    private final ConnectionManager.Lease lease;
+
+    private final Deque<Transfer> outgoing = new ArrayDeque<>();
+
+    private final HTTPRequestParser parser = new HTTPRequestParser();
+
+    private final Deque<HTTPRequest> pipelined = new ArrayDeque<>();
+
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHER];
+
+    /**
+     * Bytes read but not handled yet, kept ready to be read from between calls.
+     */
+    private ByteBuffer incoming = ByteBuffer.allocate(Const.DEFAULT_READ_BUFFER_SIZE).flip();
+
+    private boolean closeAfterWrite = false;
+
+    /**
+     * No further request is read once one not asking to keep the connection alive has been.
+     */
+    private boolean last = false;
+
+    /**
+     * Set once a response whose end is marked by closing the connection is queued, after which no other can be.
+     */
+    private boolean ended = false;
+
+    /**
+     * Answer to a request rejected before reaching the application protocol, queued in its place once the requests
+     * before it are answered, after which the connection is closed.
+     */
+    private HTTPResponse rejection;
+
+    /**
+     * Whether work offloaded to the disk threads is in flight, during which nothing more is read.
+     */
+    private boolean waiting = false;
+
+    private ApplicationProtocol.Upload upload;
+
+    /**
+     * Whether the application protocol declined to stream the body of the request being parsed, which is then read
+     * into memory with the rest of the request.
+     */
+    private boolean declined = false;
+
+    private HTTPRequest uploadRequest;
+
+    private long uploadRemaining;
+
+    /**
+     * A null key and reactor mean the channel is in blocking mode and is driven by its own thread rather than a
+     * selector, in which case file access is done on that thread as well.
+     */
+    Connection(
+        final SocketChannel channel,
+        final SelectionKey key,
+        final Reactor reactor,
+        final ApplicationProtocol.Response applicationProtocol,
+        final ConnectionManager.Lease lease) {
+        this.channel = channel;
+        this.key = key;
+        this.reactor = reactor;
+        this.applicationProtocol = applicationProtocol;
+        this.lease = lease;
+    }
+
+    void read() throws IOException {
+        incoming.compact();
+        if (!incoming.hasRemaining()) {
+            if (incoming.capacity() >= MAX_INCOMING_SIZE) {
+                throw new IOException("Request exceeded " + MAX_INCOMING_SIZE + " bytes");
+            }
+            incoming = grow(incoming);
+        }
+
+        final int nRead = channel.read(incoming);
+        incoming.flip();
+        if (nRead == -1) {
+            log.debug("connection closed by peer {}", channel.getRemoteAddress());
+            close();
+            return;
+        }
+        lease.touch();
+
+        process();
+    }
+
+    /**
+     * Handles the requests read so far, then writes out what can be of their responses. In reactor mode, it stops at
+     * the first request needing file access, which is done on the disk threads, and is resumed once it is done.
+     * Incoming bytes are left unread in the meantime so requests are still answered in order.
+     */
+    private void process() throws IOException {
+        while (!waiting && !closeAfterWrite && !last) {
+            if (upload != null) {
+                if (!drainUpload()) {
+                    break;
+                }
+                continue;
+            }
+
+            final boolean complete = parser.parse(incoming);
+            if (parser.isInvalid()) {
+                log.error("request invalid: {}", parser.error());
+                reject(StaticResponse.BAD_REQUEST.response(parser.error()));
+                break;
+            }
+            if (parser.headersComplete() && parser.method() == HTTPMethod.POST && parser.contentLength() > 0 && !declined) {
+                if (!pipelined.isEmpty()) {
+                    dispatch();
+                    continue;
+                }
+                startUpload();
+                continue;
+            }
+            if (parser.headersComplete() && parser.contentLength() > MAX_BUFFERED_BODY_SIZE) {
+                log.error("request body of {} bytes exceeded {} bytes", parser.contentLength(), MAX_BUFFERED_BODY_SIZE);
+                reject(StaticResponse.PAYLOAD_TOO_LARGE.response(MAX_BUFFERED_BODY_SIZE + " bytes"));
+                break;
+            }
+            if (!complete) {
+                break;
+            }
+
+            final HTTPRequest request = request();
+            incoming.position(incoming.position() + parser.length());
+            parser.reset();
+            declined = false;
+            if (request == null) {
+                continue;
+            }
+
+            last = !request.isKeepAlive();
+            pipelined.add(request);
+            if (request.method() != HTTPMethod.GET) {
+                // Writes are not reordered with the reads around them
+                dispatch();
+            }
+        }
+        if (!waiting) {
+            dispatch();
+        }
+        if (!waiting && rejection != null) {
+            if (!ended) {
+                outgoing.add(Transfer.of(rejection.encoded()));
+            }
+            rejection = null;
+            closeAfterWrite = true;
+        }
+
+        write();
+    }
+
+    void write() throws IOException {
+        while (!outgoing.isEmpty()) {
+            lease.touch();
+            final Transfer next = outgoing.peek();
+            if (next.needsFill()) {
+                if (reactor == null) {
+                    next.fill();
+                } else {
+                    // Produced on the disk threads, writing resumes once it is
+                    if (!waiting) {
+                        offload(() -> {
+                            next.fill();
+                            return next;
+                        }, filled -> {
+                        });
+                    }
+                    key.interestOps(0);
+                    return;
+                }
+            }
+
+            if (next.buffer() != null) {
+                if (gather()) {
+                    continue;
+                }
+            } else if (next.writeTo(channel)) {
+                outgoing.poll();
+                continue;
+            } else if (next.needsFill()) {
+                continue;
+            }
+
+            if (key != null) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+
+        if (closeAfterWrite && !waiting) {
+            close();
+        } else if (key != null) {
+            key.interestOps(waiting ? 0 : SelectionKey.OP_READ);
+        }
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    void close() {
+        if (key != null) {
+            key.cancel();
+        }
+        if (upload != null) {
+            upload.abort();
+            upload = null;
+        }
+        try {
+            for (final var transfer : outgoing) {
+                transfer.close();
+            }
+            outgoing.clear();
+            channel.close();
+        } catch (final IOException e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+        }
+        lease.release();
+    }
+
+    /**
+     * Opens the upload the body of the request whose head was just parsed is streamed to. Opening it creates the file
+     * written, so it is offloaded like the writes that follow.
+     */
+    private void startUpload() throws IOException {
+        final HTTPRequest request;
+        try {
+            request = parser.head();
+        } catch (final HTTPRequest.RequestError e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            reject(StaticResponse.BAD_REQUEST.response(e.getMessage()));
+            return;
+        }
+
+        offload(() -> applicationProtocol.upload(request), opened -> {
+            if (opened == null) {
+                declined = true;
+                return;
+            }
+            if (!channel.isOpen()) {
+                // Closed while the upload was being opened
+                opened.abort();
+                return;
+            }
+
+            log.debug("streaming {} byte body of {} {}", parser.contentLength(), request.method(), request.path());
+            if ("100-continue".equalsIgnoreCase(parser.header("Expect"))) {
+                outgoing.add(Transfer.of(ByteBuffer.wrap(CONTINUE.clone())));
+            }
+            upload = opened;
+            uploadRequest = request;
+            uploadRemaining = parser.contentLength();
+            incoming.position(incoming.position() + parser.bodyOffset());
+            parser.reset();
+        });
+    }
+
+    /**
+     * Answers the request being parsed with the given response, once the ones before it are, then closes the
+     * connection without reading any further.
+     */
+    private void reject(final HTTPResponse response) {
+        rejection = response;
+        last = true;
+    }
+
+    /**
+     * @return true once the whole body has been handed to the upload and the response queued
+     */
+    private boolean drainUpload() throws IOException {
+        final ApplicationProtocol.Upload upload = this.upload;
+        final int n = (int) Math.min(incoming.remaining(), uploadRemaining);
+        if (n > 0) {
+            final ByteBuffer chunk = incoming.duplicate();
+            chunk.limit(chunk.position() + n);
+            offload(() -> {
+                upload.write(chunk);
+                return n;
+            }, written -> {
+                incoming.position(incoming.position() + written);
+                uploadRemaining -= written;
+            });
+        }
+
+        if (waiting || uploadRemaining > 0) {
+            return false;
+        }
+
+        final HTTPRequest request = uploadRequest;
+        offload(() -> encode(request, upload.complete(), false), transfers -> {
+            this.upload = null;
+            uploadRequest = null;
+            respond(request, transfers);
+        });
+        return !waiting;
+    }
+
+    /**
+     * Answers the requests collected so far, in order. The responses of a run of GETs are prepared concurrently and
+     * then queued in request order, any other request is answered on its own once the ones before it are.
+     */
+    private void dispatch() throws IOException {
+        while (!pipelined.isEmpty() && !waiting) {
+            final List<HTTPRequest> batch = new ArrayList<>();
+            if (pipelined.peek().method() != HTTPMethod.GET) {
+                batch.add(pipelined.poll());
+            } else {
+                while (!pipelined.isEmpty() && pipelined.peek().method() == HTTPMethod.GET) {
+                    batch.add(pipelined.poll());
+                }
+            }
+
+            final boolean inline = batch.size() > 1;
+            if (inline) {
+                log.debug("preparing {} pipelined responses", batch.size());
+            }
+            final List<FileWork<List<Transfer>>> work = new ArrayList<>(batch.size());
+            for (final var request : batch) {
+                work.add(() -> encode(request, applicationProtocol.response(request), inline));
+            }
+            offload(work, responses -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    respond(batch.get(i), responses.get(i));
+                }
+            });
+        }
+    }
+
+    private <T> void offload(final FileWork<T> work, final Completion<T> then) throws IOException {
+        offload(List.of(work), results -> then.accept(results.get(0)));
+    }
+
+    /**
+     * Does the work, concurrently if there is more than one piece of it, then hands its results in order to the
+     * completion. In reactor mode the work is done on the disk threads and the completion runs later on the reactor's
+     * thread, the connection waiting until then.
+     */
+    private <T> void offload(final List<FileWork<T>> work, final Completion<List<T>> then) throws IOException {
+        if (reactor == null) {
+            if (work.size() == 1) {
+                then.accept(List.of(work.get(0).run()));
+                return;
+            }
+            final var futures = new ArrayList<Future<T>>(work.size());
+            for (final var piece : work) {
+                futures.add(PIPELINE.submit(piece::run));
+            }
+            final var results = new ArrayList<T>(work.size());
+            for (final var future : futures) {
+                results.add(join(future));
+            }
+            then.accept(results);
+            return;
+        }
+
+        waiting = true;
+        final var futures = new ArrayList<CompletableFuture<T>>(work.size());
+        for (final var piece : work) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return piece.run();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, reactor.disk()));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+            .whenComplete((ignored, failure) -> reactor.execute(() -> resume(futures, failure, then)));
+    }
+
+    /**
+     * Runs on the reactor's thread once offloaded work is done, picking up where {@link #process()} left off.
+     */
+    private <T> void resume(final List<CompletableFuture<T>> futures, final Throwable failure, final Completion<List<T>> then) {
+        waiting = false;
+        try {
+            if (failure != null) {
+                final Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                throw cause instanceof UncheckedIOException ? ((UncheckedIOException) cause).getCause() : new IOException(cause);
+            }
+
+            final var results = new ArrayList<T>(futures.size());
+            for (final var future : futures) {
+                results.add(future.join());
+            }
+            then.accept(results);
+            if (channel.isOpen()) {
+                process();
+            }
+        } catch (final IOException e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            close();
+        } catch (final RuntimeException e) {
+            log.error("resuming connection failed", e);
+            close();
+        }
+    }
+
+    private void respond(final HTTPRequest request, final List<Transfer> transfers) throws IOException {
+        if (!channel.isOpen() || ended) {
+            // Closed while the response was being prepared, or to be once the one before is written
+            for (final var transfer : transfers) {
+                transfer.close();
+            }
+            return;
+        }
+        outgoing.addAll(transfers);
+        ended = transfers.get(transfers.size() - 1).closesConnection();
+        last |= ended;
+        closeAfterWrite |= ended || !request.isKeepAlive();
+    }
+
+    /**
+     * Writes the run of plain buffers at the head of the queue with a single gathering write.
+     *
+     * @return true if all of them were written
+     */
+    private boolean gather() throws IOException {
+        int n = 0;
+        for (final var transfer : outgoing) {
+            if (n == gathered.length || transfer.buffer() == null) {
+                break;
+            }
+            gathered[n++] = transfer.buffer();
+        }
+
+        channel.write(gathered, 0, n);
+        // Read before closing: pooled buffers released can be taken and refilled by another connection right away
+        final boolean written = !gathered[n - 1].hasRemaining();
+        for (int i = 0; i < n && !gathered[i].hasRemaining(); i++) {
+            outgoing.poll().close();
+        }
+        Arrays.fill(gathered, 0, n, null);
+        return written;
+    }
+
+    private List<Transfer> encode(final HTTPRequest request, final HTTPResponse response, final boolean inline) throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("request:");
+            log.debug(request.toString());
+            log.debug("response:");
+            log.debug(response.toString());
+        }
+        if (response.encoded() != null) {
+            return List.of(Transfer.of(response.encoded()));
+        }
+        if (response.chunks() != null) {
+            if (Const.HTTP_1_0.equals(request.version())) {
+                // Chunked transfer encoding is HTTP/1.1 only, the body is sent as it is and ends with the connection
+                final Headers headers = new Headers(response.headers());
+                headers.put(Const.Headers.CONNECTION, "close");
+                return List.of(head(response.toBuilder().headers(headers).chunks(null).build(), null), Transfer.of(response.chunks(), false));
+            }
+            return List.of(head(response, null), Transfer.of(response.chunks()));
+        }
+        if (response.parts() != null) {
+            final List<Transfer> transfers = new ArrayList<>(2 * response.parts().size() + 1);
+            transfers.add(head(response, null));
+            for (final var part : response.parts()) {
+                transfers.add(Transfer.of(ByteBuffer.wrap(part.prefix().getBytes(ISO_8859_1))));
+                if (part.region() != null) {
+                    transfers.add(file(part.region()));
+                }
+            }
+            return transfers;
+        }
+        if (response.file() == null) {
+            return List.of(head(response, response.body()));
+        }
+
+        if (inline && response.file().count() <= MAX_INLINE_FILE_SIZE) {
+            final ByteBuffer buffer = buffer(ResponseEncoder.headLength(response) + (int) response.file().count());
+            ResponseEncoder.encodeHead(response, buffer);
+            response.file().read(buffer);
+            return List.of(transfer(buffer.flip()));
+        }
+        return List.of(head(response, null), file(response.file()));
+    }
+
+    /**
+     * In reactor mode the file is read on the disk threads into pooled buffers, the reactor only writing them out.
+     */
+    private Transfer file(final FileRegion region) {
+        return reactor != null ? Transfer.of(region, BUFFERS) : Transfer.of(region);
+    }
+
+    /**
+     * Encodes the head of the response, followed by the body if given, into a pooled buffer if they fit in one.
+     */
+    private static Transfer head(final HTTPResponse response, final byte[] body) {
+        final ByteBuffer buffer = buffer(ResponseEncoder.headLength(response) + (body != null ? body.length : 0));
+        ResponseEncoder.encodeHead(response, buffer);
+        if (body != null) {
+            buffer.put(body);
+        }
+        return transfer(buffer.flip());
+    }
+
+    /**
+     * @return a pooled direct buffer if the size fits in one, an exact heap buffer otherwise
+     */
+    private static ByteBuffer buffer(final int size) {
+        return size <= BUFFERS.bufferSize() ? BUFFERS.acquire() : ByteBuffer.allocate(size);
+    }
+
+    private static Transfer transfer(final ByteBuffer buffer) {
+        return buffer.isDirect() ? Transfer.of(buffer, BUFFERS) : Transfer.of(buffer);
+    }
+
+    private static <T> T join(final Future<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private HTTPRequest request() {
+        try {
+            return parser.request();
+        } catch (final HTTPRequest.RequestError e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            reject(StaticResponse.BAD_REQUEST.response(e.getMessage()));
+            return null;
+        }
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buffer) {
+        final ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    @FunctionalInterface
+    private interface FileWork<T> {
+        T run() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Completion<T> {
+        void accept(T result) throws IOException;
+    }
+}
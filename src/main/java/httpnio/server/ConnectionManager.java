@@ -0,0 +1,188 @@
+package httpnio.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps track of the open connections of both transports, refuses new ones past the global and per peer limits, and
+ * evicts the ones left idle for longer than the idle timeout.
+ * <p>
+ * Idle connections are found with a hashed timer wheel: every lease sits in the slot of the tick its deadline falls
+ * on, and only the current slot is looked at on each tick. Activity just moves the lease's deadline forward, the lease
+ * is rescheduled lazily when its slot comes up and it turns out not to be idle yet.
+ */
+@Slf4j
+class ConnectionManager extends Thread {
+
+    private static final int WHEEL_SIZE = 256;
+
+    private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long idleTimeoutNanos;
+
+    private final long tickNanos;
+
+    private final int maxConnections;
+
+    private final int maxConnectionsPerPeer;
+
+    private final Queue<Lease>[] wheel;
+
+    private final ConcurrentHashMap<Object, Integer> peers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger live = new AtomicInteger();
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile long tick = 0;
+
+    private volatile boolean isRunning = true;
+
+    @SuppressWarnings("unchecked")
+    ConnectionManager(final Server.Configuration configuration) {
+        super("connection-manager-thread");
+        setDaemon(true);
+        idleTimeoutNanos = TimeUnit.SECONDS.toNanos(configuration.idleTimeout());
+        tickNanos = Math.max(MIN_TICK_NANOS, idleTimeoutNanos / 32);
+        maxConnections = configuration.maxConnections();
+        maxConnectionsPerPeer = configuration.maxConnectionsPerPeer();
+        wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * @param peer    remote address of the connection, limits per peer apply to its host
+     * @param onClose run once when the lease ends, whether released or evicted, to free what the connection holds
+     * @return the lease to touch on activity and release on close, or null if a limit was reached and the connection
+     * should be refused
+     */
+    Lease acquire(final SocketAddress peer, final Runnable onClose) {
+        final Object host = peer instanceof InetSocketAddress ? ((InetSocketAddress) peer).getAddress() : peer;
+
+        if (live.incrementAndGet() > maxConnections) {
+            live.decrementAndGet();
+            rejected.incrementAndGet();
+            log.warn("refusing connection from {}, {} connections already open", peer, maxConnections);
+            return null;
+        }
+
+        if (peers.merge(host, 1, Integer::sum) > maxConnectionsPerPeer) {
+            untrack(host);
+            rejected.incrementAndGet();
+            log.warn("refusing connection from {}, {} connections already open from this peer", peer, maxConnectionsPerPeer);
+            return null;
+        }
+
+        final Lease lease = new Lease(host, onClose);
+        schedule(lease);
+        return lease;
+    }
+
+    int live() {
+        return live.get();
+    }
+
+    long evicted() {
+        return evicted.get();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    void shutdown() {
+        isRunning = false;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime() + tickNanos;
+        while (isRunning) {
+            final long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+                continue;
+            }
+
+            expire(wheel[(int) (tick % WHEEL_SIZE)]);
+            tick++;
+            next += tickNanos;
+        }
+    }
+
+    private void expire(final Queue<Lease> slot) {
+        final long now = System.nanoTime();
+        Lease lease;
+        while ((lease = slot.poll()) != null) {
+            if (lease.released.get()) {
+                continue;
+            }
+
+            if (now - lease.lastActive >= idleTimeoutNanos) {
+                log.debug("evicting connection idle for {}ms", TimeUnit.NANOSECONDS.toMillis(now - lease.lastActive));
+                evicted.incrementAndGet();
+                lease.release();
+            } else {
+                schedule(lease);
+            }
+        }
+    }
+
+    private void schedule(final Lease lease) {
+        final long remaining = lease.lastActive + idleTimeoutNanos - System.nanoTime();
+        final long ticks = Math.min(WHEEL_SIZE - 1, Math.max(1, (remaining + tickNanos - 1) / tickNanos));
+        wheel[(int) ((tick + ticks) % WHEEL_SIZE)].add(lease);
+    }
+
+    private void untrack(final Object host) {
+        live.decrementAndGet();
+        peers.computeIfPresent(host, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    final class Lease {
+        private final Object host;
+
+        private final Runnable onClose;
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private volatile long lastActive = System.nanoTime();
+
+        private Lease(final Object host, final Runnable onClose) {
+            this.host = host;
+            this.onClose = onClose;
+        }
+
+        void touch() {
+            lastActive = System.nanoTime();
+        }
+
+        void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+
+            untrack(host);
+            try {
+                onClose.run();
+            } catch (final RuntimeException e) {
+                log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+}
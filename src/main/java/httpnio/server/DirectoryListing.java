@@ -0,0 +1,191 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.ChunkedBody;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Paths of the regular files under a directory, relative to the served directory and one per line, produced as the
+ * tree is walked. Names are walked in lexicographic order a directory at a time, so only the directories on the way
+ * down to the current file are held in memory, however large the tree.
+ * <p>
+ * Listings are paginated by passing the last path of a page as the cursor of the next one: the walk resumes right
+ * after it, skipping the subtrees that sort before it rather than walking through them.
+ * <p>
+ * Sorting a directory's names takes reading all of them, so each directory on the way down holds the names left to
+ * walk in it: memory grows with the size of the largest of those directories, not with the size of the tree. Names
+ * sorting before the cursor or outside of the prefix are dropped as the directory is read, so paginating through a
+ * directory of very many entries, or narrowing it with a prefix, holds only what is left to list.
+ */
+@Slf4j
+class DirectoryListing implements ChunkedBody {
+
+    static final int MAX_DEPTH = 64;
+
+    private static final int CHUNK_SIZE = Const.DEFAULT_READ_BUFFER_SIZE;
+
+    private final String prefix;
+
+    private final int depth;
+
+    private final String[] cursor;
+
+    private final Deque<Level> levels = new ArrayDeque<>();
+
+    private int remaining;
+
+    /**
+     * @param directory the directory to list
+     * @param key       path of the directory relative to the served directory, empty for the served directory itself
+     * @param prefix    only paths starting with it are listed
+     * @param cursor    only paths sorting after it are listed, null to start from the first one
+     * @param limit     number of paths listed at most
+     * @param depth     levels of directories walked down, 1 to only list the files directly in the directory
+     * @throws IOException if the directory itself cannot be read
+     */
+    DirectoryListing(
+        final Path directory,
+        final String key,
+        final String prefix,
+        final String cursor,
+        final int limit,
+        final int depth) throws IOException {
+        this.prefix = prefix;
+        this.depth = Math.min(depth, MAX_DEPTH);
+        this.cursor = cursor != null && cursor.startsWith(key + "/") ? cursor.substring(1).split("/") : null;
+        remaining = limit;
+
+        final int components = key.isEmpty() ? 0 : key.substring(1).split("/").length;
+        levels.push(new Level(directory, key, 1, components, this.cursor != null));
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+        final StringBuilder chunk = new StringBuilder();
+        while (chunk.length() < CHUNK_SIZE && remaining > 0) {
+            final String path = nextPath();
+            if (path == null) {
+                break;
+            }
+            chunk.append(path).append('\n');
+            remaining--;
+        }
+        return chunk.length() > 0 ? ByteBuffer.wrap(chunk.toString().getBytes(UTF_8)) : null;
+    }
+
+    @Override
+    public void close() {
+        levels.clear();
+    }
+
+    private String nextPath() throws IOException {
+        while (!levels.isEmpty()) {
+            final Level level = levels.peek();
+            if (level.index == level.names.size()) {
+                levels.pop();
+                continue;
+            }
+
+            final String name = level.names.get(level.index++);
+            final boolean onCursor = level.onCursor && name.equals(cursor[level.component]);
+            final boolean atCursor = onCursor && level.component == cursor.length - 1;
+            final String key = level.key + "/" + name;
+
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(level.directory.resolve(name), BasicFileAttributes.class);
+            } catch (final IOException e) {
+                log.debug("skipping {}: {}", key, e.getMessage());
+                continue;
+            }
+
+            if (attributes.isRegularFile()) {
+                if (!atCursor && key.startsWith(prefix)) {
+                    return key;
+                }
+            } else if (attributes.isDirectory() && level.depth < depth && !atCursor && mayContainPrefix(key)) {
+                try {
+                    levels.push(new Level(level.directory.resolve(name), key, level.depth + 1, level.component + 1, onCursor));
+                } catch (final IOException e) {
+                    log.debug("skipping {}: {}", key, e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean mayContainPrefix(final String key) {
+        return (key + "/").startsWith(prefix) || prefix.startsWith(key + "/");
+    }
+
+    private final class Level {
+        private final Path directory;
+
+        private final String key;
+
+        private final int depth;
+
+        /**
+         * Index in the cursor of the component its entries are compared to.
+         */
+        private final int component;
+
+        /**
+         * Whether the directory is on the cursor's path, in which case the walk resumes within it.
+         */
+        private final boolean onCursor;
+
+        private final List<String> names = new ArrayList<>();
+
+        private int index = 0;
+
+        Level(
+            final Path directory,
+            final String key,
+            final int depth,
+            final int component,
+            final boolean onCursor) throws IOException {
+            this.directory = directory;
+            this.key = key;
+            this.depth = depth;
+            this.component = component;
+            this.onCursor = onCursor;
+
+            try (final DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (final Path entry : entries) {
+                    final String name = entry.getFileName().toString();
+                    if (!AtomicWrite.isPartial(name) && walked(name)) {
+                        names.add(name);
+                    }
+                }
+            }
+            Collections.sort(names);
+        }
+
+        /**
+         * Whether the entry can lead to a path of the listing, as far as its name tells: it sorts from the cursor on
+         * and may be or contain a path starting with the prefix.
+         */
+        private boolean walked(final String name) {
+            if (onCursor && name.compareTo(cursor[component]) < 0) {
+                return false;
+            }
+            final String entryKey = key + "/" + name;
+            return entryKey.startsWith(prefix) || mayContainPrefix(entryKey);
+        }
+    }
+}
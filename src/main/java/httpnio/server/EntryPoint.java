@@ -11,6 +11,9 @@ import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 @NoArgsConstructor
 @AllArgsConstructor
 @ToString
@@ -32,6 +35,27 @@ public class EntryPoint {
         description = "Use a Selective Repeat over UDP transport protocol implementation.")
     boolean udp;
 
+    @Flag(
+        name = "strongEtags",
+        alias = {"--strong-etags"},
+        required = false,
+        description = "Uses a hash of the file contents as entity tag, computed on first request, instead of its size and modification time.")
+    boolean strongEtags;
+
+    @Flag(
+        name = "noCompression",
+        alias = {"--no-compression"},
+        required = false,
+        description = "Never compresses responses, even for clients accepting gzip or deflate.")
+    boolean noCompression;
+
+    @Flag(
+        name = "durable",
+        alias = {"--durable"},
+        required = false,
+        description = "Acknowledges writes only once synced to the disk, syncing concurrent writes together.")
+    boolean durable;
+
     @Option(
         name = "port",
         alias = {"--port", "-p"},
@@ -53,6 +77,116 @@ public class EntryPoint {
         description = "Specifies the directory that the server will use to read/write requested files (default is the current directory when launching the application).")
     String directory;
 
+    @Option(
+        name = "archive",
+        alias = {"--archive", "-a"},
+        argument = @Argument(name = "archive",
+            format = "/path/to/archive",
+            regex = "(.*)",
+            description = "Path to the archive"),
+        description = "Serves the files packed into the archive, read-only, instead of the directory.")
+    String archive;
+
+    @Option(
+        name = "buildArchive",
+        alias = {"--build-archive", "-b"},
+        argument = @Argument(name = "archive",
+            format = "/path/to/archive",
+            regex = "(.*)",
+            description = "Path to the archive"),
+        description = "Packs the files of the directory into an archive to serve with --archive, then exits.")
+    String buildArchive;
+
+    @Option(
+        name = "mode",
+        alias = {"--mode", "-m"},
+        argument = @Argument(name = "mode",
+            format = "pool|reactor|virtual",
+            regex = "(^(pool|reactor|virtual)$)",
+            description = "Connection handling mode"),
+        description = "Specifies how connections are served: a thread per connection from a fixed pool, a non-blocking selector loop (TCP only), or a virtual thread per connection (default is pool).")
+    String mode;
+
+    @Option(
+        name = "threads",
+        alias = {"--threads", "-T"},
+        argument = @Argument(name = "threads",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies the number of threads in pool mode, each serving one connection at a time for as long as it stays open, so further connections wait for a free thread (default is 2).")
+    int threads;
+
+    @Option(
+        name = "reactors",
+        alias = {"--reactors", "-r"},
+        argument = @Argument(name = "reactors",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies the number of selector threads connections are spread across in reactor mode (default is the number of available cores).")
+    int reactors;
+
+    @Option(
+        name = "diskThreads",
+        alias = {"--disk-threads", "-D"},
+        argument = @Argument(name = "diskThreads",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies the number of threads file reads and writes are done on in reactor mode, so that a slow disk only holds up the requests touching it (default is 16).")
+    int diskThreads;
+
+    @Option(
+        name = "idleTimeout",
+        alias = {"--idle-timeout", "-t"},
+        argument = @Argument(name = "seconds",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies after how many seconds without activity a connection is closed (default is 60).")
+    int idleTimeout;
+
+    @Option(
+        name = "maxConnections",
+        alias = {"--max-connections", "-c"},
+        argument = @Argument(name = "maxConnections",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies how many connections may be open at once, further ones are refused (default is 10000).")
+    int maxConnections;
+
+    @Option(
+        name = "maxConnectionsPerPeer",
+        alias = {"--max-per-peer", "-P"},
+        argument = @Argument(name = "maxConnectionsPerPeer",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies how many connections a single client host may have open at once (default is 256).")
+    int maxConnectionsPerPeer;
+
+    @Option(
+        name = "cacheSize",
+        alias = {"--cache-size", "-s"},
+        argument = @Argument(name = "megabytes",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies how many megabytes of small, frequently requested files, and as many of compressed responses, are kept in memory ready to be sent (default is 64).")
+    int cacheSize;
+
+    @Option(
+        name = "commitWindow",
+        alias = {"--commit-window", "-w"},
+        argument = @Argument(name = "microseconds",
+            format = "number",
+            regex = "(^\\d+$)",
+            description = ""),
+        description = "Specifies how long a durable write waits for others to be synced along with it, at most as many as there are threads serving writes (default is 1000).")
+    int commitWindow;
+
     public static void entryPoint(final String[] args) {
         final Parser<httpnio.server.EntryPoint> parser = new Parser<>(httpnio.server.EntryPoint.class);
         final Try<Either<String, httpnio.server.EntryPoint>> result = parser.parse(String.join(" ", args));
@@ -77,10 +211,35 @@ public class EntryPoint {
     static void exec(final httpnio.server.EntryPoint ep) {
         final Server.Configuration configuration = new Server.Configuration(
             TransportProtocol.Type.of(ep.udp ? "UDP" : "TCP"),
-            ApplicationProtocol.Type.of("FS"),
+            ApplicationProtocol.Type.of(ep.archive != null ? "ARCHIVE" : "FS"),
             ep.port,
             ep.verbose,
-            ep.directory);
+            ep.directory,
+            ep.archive,
+            Server.Mode.of(ep.mode),
+            ep.threads,
+            ep.reactors,
+            ep.diskThreads,
+            ep.idleTimeout,
+            ep.maxConnections,
+            ep.maxConnectionsPerPeer,
+            ep.cacheSize,
+            ep.strongEtags,
+            !ep.noCompression,
+            ep.durable,
+            ep.commitWindow);
+
+        if (ep.buildArchive != null) {
+            try {
+                final int count = Archive.build(Paths.get(configuration.directory()), Paths.get(ep.buildArchive));
+                System.out.println("Packed " + count + " files into " + ep.buildArchive);
+            } catch (final IOException e) {
+                System.err.println("Could not build the archive: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
         new Server(configuration).run();
     }
 }
@@ -1,20 +1,40 @@
 package httpnio.server;
 
+import httpnio.Const;
 import httpnio.common.ApplicationProtocol;
+import httpnio.common.ByteRange;
+import httpnio.common.FileRegion;
 import httpnio.common.HTTPRequest;
 import httpnio.common.HTTPResponse;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.MalformedInputException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class FileServerProtocol implements ApplicationProtocol.Response {
 
@@ -22,12 +42,48 @@ public class FileServerProtocol implements ApplicationProtocol.Response {
 
     String pathAsString;
 
+    private final ResponseCache cache;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+        .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+        .withZone(ZoneOffset.UTC);
+
+    private final PathIndex index;
+
+    private final boolean strongEtags;
+
+    private final Compressor compressor;
+
+    private final GroupCommit groupCommit;
+
     public FileServerProtocol() throws IOException {
         this(Paths.get("").toAbsolutePath().toString());
     }
 
     public FileServerProtocol(final String directory) throws IOException {
+        this(directory, null, null, false, null, null);
+    }
+
+    /**
+     * @param cache shared by every copy of the protocol serving the same directory, null to always read from disk
+     * @param index of the same directory, null to look files up by walking the directory
+     * @param strongEtags whether entity tags are hashes of the file contents rather than derived from its metadata
+     * @param compressor shared like the cache, null to never compress responses
+     * @param groupCommit shared like the cache, null to acknowledge writes before they are synced to the disk
+     */
+    FileServerProtocol(
+        final String directory,
+        final ResponseCache cache,
+        final PathIndex index,
+        final boolean strongEtags,
+        final Compressor compressor,
+        final GroupCommit groupCommit) throws IOException {
         path = Paths.get(directory);
+        this.cache = cache;
+        this.index = index;
+        this.strongEtags = strongEtags;
+        this.compressor = compressor;
+        this.groupCommit = groupCommit;
 
         if (!path.toFile().exists() || !path.toFile().isDirectory()) {
             throw new IllegalStateException("The directory specified does not exist: " + directory);
@@ -41,9 +97,22 @@ public class FileServerProtocol implements ApplicationProtocol.Response {
         return dispatchResponse(request);
     }
 
+    @Override
+    public ApplicationProtocol.Upload upload(final HTTPRequest request) {
+        try {
+            final Path pathToFile = resolve(request.path());
+            Files.createDirectories(pathToFile.getParent());
+            return new FileUpload(request.path(), AtomicWrite.open(pathToFile), this::commit);
+        } catch (final IOException e) {
+            return ApplicationProtocol.Upload.discarding(StaticResponse.WRITE_FAILED.response(request.path() + "\n" + e.getMessage()));
+        } catch (final FileServerProtocol.Error e) {
+            return ApplicationProtocol.Upload.discarding(StaticResponse.UNAUTHORIZED.response(e.getMessage()));
+        }
+    }
+
     @Override
     public ApplicationProtocol.Response copy() throws IOException {
-        return new FileServerProtocol(pathAsString);
+        return new FileServerProtocol(pathAsString, cache, index, strongEtags, compressor, groupCommit);
     }
 
     private HTTPResponse dispatchResponse(final HTTPRequest request) {
@@ -58,164 +127,367 @@ public class FileServerProtocol implements ApplicationProtocol.Response {
     }
 
     private HTTPResponse get(final HTTPRequest request) {
-        if (request.path().equalsIgnoreCase("/")) {
-            return HTTPResponse.builder()
-                .statusCode("200")
-                .statusMessage("OK")
-                .headers(Map.of(
-                    "Accept", "*/*"
-                ))
-                .body(String.join("\n", fileNames(pathAsString)))
-                .build();
-        } else {
-            try {
-                final String fileContent = read(request.path());
-
-                if (fileContent == null) {
-                    return HTTPResponse.builder()
-                        .statusCode("404")
-                        .statusMessage("NOT FOUND")
-                        .headers(Map.of(
-                            "Accept", "*/*"
-                        ))
-                        .body("Could not find the specified file: " + request.path())
-                        .build();
-                }
+        try {
+            final int query = request.path().indexOf('?');
+            final String relativeDirectoryPath = query == -1 ? request.path() : request.path().substring(0, query);
+            final Path directory = resolve(relativeDirectoryPath);
 
+            if (Files.isDirectory(directory)) {
+                return list(directory, relativeDirectoryPath, query == -1 ? "" : request.path().substring(query + 1));
+            }
+
+            final File file = file(request.path());
+
+            if (file == null) {
+                return StaticResponse.NOT_FOUND.response(request.path());
+            }
+
+            final PathIndex.Entry metadata = metadata(request.path(), file.toPath());
+            final String etag = etag(file.toPath(), metadata);
+            final String lastModified = httpDate(metadata.lastModified());
+
+            if (notModified(request, etag, metadata.lastModified())) {
                 return HTTPResponse.builder()
-                    .statusCode("200")
-                    .statusMessage("OK")
-                    .headers(Map.of(
-                        "Accept", "*/*"
-                    ))
-                    .body(fileContent)
-                    .build();
-            } catch (final MalformedInputException e) {
-                return HTTPResponse.builder()
-                    .statusCode("500")
-                    .statusMessage("INTERNAL SERVER ERROR")
-                    .headers(Map.of(
-                        "Accept", "*/*"
-                    ))
-                    .body("Contents of file contain non UTF-8 character encodings: " + request.path() + "\n" + e.getMessage())
-                    .build();
-            } catch (final IOException e) {
-                return HTTPResponse.builder()
-                    .statusCode("500")
-                    .statusMessage("INTERNAL SERVER ERROR")
-                    .headers(Map.of(
-                        "Accept", "*/*"
-                    ))
-                    .body("The specified file could not be read: " + request.path() + "\n" + e.getMessage())
-                    .build();
-            } catch (final FileServerProtocol.Error e) {
-                return HTTPResponse.builder()
-                    .statusCode("401")
-                    .statusMessage("UNAUTHORIZED ACCESS")
+                    .statusCode("304")
+                    .statusMessage("NOT MODIFIED")
                     .headers(Map.of(
-                        "Accept", "*/*"
+                        Const.Headers.ETAG, etag,
+                        Const.Headers.LAST_MODIFIED, lastModified
                     ))
-                    .body(e.getMessage())
                     .build();
             }
-        }
-    }
 
-    private HTTPResponse post(final HTTPRequest request) {
-        try {
-            write(request.path(), request.body());
+            final FileRegion content = new FileRegion(file.toPath(), 0, metadata.size());
+            final String range = request.header(Const.Headers.RANGE);
+            if (range != null) {
+                final HTTPResponse partial = partial(content, range, etag, lastModified);
+                if (partial != null) {
+                    return partial;
+                }
+            }
 
-            return HTTPResponse.builder()
+            final boolean compressible = compressor != null && Compressor.compressible(file.toPath(), metadata.size());
+            final String coding = compressible ? Compressor.negotiate(request.header(Const.Headers.ACCEPT_ENCODING)) : null;
+            // The identity response is only built on a miss, the cache being keyed and validated by the index's entry
+            if (coding == null) {
+                final HTTPResponse cached = cached(request.path(), metadata);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            final HTTPResponse response = HTTPResponse.builder()
                 .statusCode("200")
                 .statusMessage("OK")
-                .headers(Map.of(
-                    "Accept", "*/*"
-                ))
-                .body("File contents successfully written to: " + request.path() + "\n" + read(request.path()))
+                .headers(compressible
+                    ? Map.of(
+                        "Accept", "*/*",
+                        Const.Headers.ACCEPT_RANGES, "bytes",
+                        Const.Headers.ETAG, etag,
+                        Const.Headers.LAST_MODIFIED, lastModified,
+                        Const.Headers.VARY, Const.Headers.ACCEPT_ENCODING)
+                    : Map.of(
+                        "Accept", "*/*",
+                        Const.Headers.ACCEPT_RANGES, "bytes",
+                        Const.Headers.ETAG, etag,
+                        Const.Headers.LAST_MODIFIED, lastModified))
+                .file(content)
                 .build();
+
+            if (coding != null) {
+                final HTTPResponse variant = compressor.variant(request.path(), coding, metadata, response);
+                if (variant != null) {
+                    return variant;
+                }
+                final HTTPResponse cached = cached(request.path(), metadata);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            return cache != null ? cache.admit(request.path(), metadata, response) : response;
+        } catch (final NoSuchFileException e) {
+            return StaticResponse.NOT_FOUND.response(request.path());
         } catch (final IOException e) {
+            return StaticResponse.READ_FAILED.response(request.path() + "\n" + e.getMessage());
+        } catch (final FileServerProtocol.Error e) {
+            return StaticResponse.UNAUTHORIZED.response(e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the paths of the files under the directory, walking it as the response is written out. The query may
+     * hold a {@code limit} on the number of paths, a {@code cursor} to resume after, the {@code depth} to walk down to
+     * and a {@code prefix} the paths must start with, relative to the directory unless it starts with a slash.
+     */
+    private HTTPResponse list(final Path directory, final String relativeDirectoryPath, final String query) throws IOException {
+        final Map<String, String> parameters = parameters(query);
+        final String key = relativeDirectoryPath.replaceAll("/+$", "");
+        final String prefix = parameters.getOrDefault("prefix", "");
+        final int limit;
+        final int depth;
+        try {
+            limit = Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(Integer.MAX_VALUE)));
+            depth = Integer.parseInt(parameters.getOrDefault("depth", String.valueOf(DirectoryListing.MAX_DEPTH)));
+        } catch (final NumberFormatException e) {
+            return StaticResponse.BAD_LISTING.response(e.getMessage());
+        }
+
+        return HTTPResponse.builder()
+            .statusCode("200")
+            .statusMessage("OK")
+            .headers(Map.of(
+                "Accept", "*/*"
+            ))
+            .chunks(new DirectoryListing(
+                directory,
+                key,
+                prefix.startsWith("/") ? prefix : key + "/" + prefix,
+                parameters.get("cursor"),
+                limit,
+                depth))
+            .build();
+    }
+
+    static Map<String, String> parameters(final String query) {
+        final Map<String, String> parameters = new HashMap<>();
+        for (final String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            final int equals = parameter.indexOf('=');
+            parameters.put(
+                URLDecoder.decode(equals == -1 ? parameter : parameter.substring(0, equals), UTF_8),
+                equals == -1 ? "" : URLDecoder.decode(parameter.substring(equals + 1), UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the parts of the file asked for by the Range header, or null if the header should be ignored and the
+     * whole file sent
+     */
+    static HTTPResponse partial(
+        final FileRegion file,
+        final String range,
+        final String etag,
+        final String lastModified) {
+        final long size = file.count();
+        final List<ByteRange> ranges = ByteRange.of(range, size);
+        if (ranges == null) {
+            return null;
+        }
+
+        if (ranges.isEmpty()) {
             return HTTPResponse.builder()
-                .statusCode("500")
-                .statusMessage("INTERNAL SERVER ERROR")
+                .statusCode("416")
+                .statusMessage("RANGE NOT SATISFIABLE")
                 .headers(Map.of(
-                    "Accept", "*/*"
+                    "Accept", "*/*",
+                    Const.Headers.CONTENT_RANGE, "bytes */" + size
                 ))
-                .body("Could not write to file: " + request.path() + "\n" + e.getMessage())
+                .body("None of the requested ranges are within the file: " + range)
                 .build();
-        } catch (final FileServerProtocol.Error e) {
+        }
+
+        if (ranges.size() == 1) {
+            final ByteRange only = ranges.get(0);
             return HTTPResponse.builder()
-                .statusCode("401")
-                .statusMessage("UNAUTHORIZED ACCESS")
+                .statusCode("206")
+                .statusMessage("PARTIAL CONTENT")
                 .headers(Map.of(
-                    "Accept", "*/*"
+                    "Accept", "*/*",
+                    Const.Headers.CONTENT_RANGE, only.contentRange(size),
+                    Const.Headers.ETAG, etag,
+                    Const.Headers.LAST_MODIFIED, lastModified
                 ))
-                .body(e.getMessage())
+                .file(file.slice(only.first(), only.length()))
                 .build();
         }
+
+        final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        final List<HTTPResponse.Part> parts = new ArrayList<>(ranges.size() + 1);
+        for (final var each : ranges) {
+            parts.add(new HTTPResponse.Part(
+                (parts.isEmpty() ? "" : Const.CRLF) + "--" + boundary + Const.CRLF
+                    + Const.Headers.CONTENT_RANGE + ": " + each.contentRange(size) + Const.CRLF + Const.CRLF,
+                file.slice(each.first(), each.length())));
+        }
+        parts.add(new HTTPResponse.Part(Const.CRLF + "--" + boundary + "--" + Const.CRLF, null));
+
+        return HTTPResponse.builder()
+            .statusCode("206")
+            .statusMessage("PARTIAL CONTENT")
+            .headers(Map.of(
+                "Accept", "*/*",
+                Const.Headers.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary,
+                Const.Headers.ETAG, etag,
+                Const.Headers.LAST_MODIFIED, lastModified
+            ))
+            .parts(parts)
+            .build();
     }
 
-    private List<File> files() {
-        return ls(pathAsString);
+    private HTTPResponse cached(final String relativeFilePath, final PathIndex.Entry metadata) {
+        return cache != null ? cache.get(relativeFilePath, metadata) : null;
     }
 
-    private File file(final String relativeFilePath) {
-        return files().stream().filter(e -> e.getAbsolutePath().equals(pathAsString + relativeFilePath)).findFirst().orElse(null);
+    private PathIndex.Entry metadata(final String relativeFilePath, final Path file) throws IOException {
+        final PathIndex.Entry entry = index != null ? index.entry(relativeFilePath) : null;
+        return entry != null ? entry : PathIndex.Entry.of(Files.readAttributes(file, BasicFileAttributes.class));
     }
 
-    private String read(final String relativeFilePath) throws IOException, FileServerProtocol.Error {
-        final Path pathToFile = Paths.get(pathAsString + relativeFilePath);
+    /**
+     * Derived from the file's identity, size and modification time, or from a hash of its contents computed the first
+     * time it is needed and kept with the file's metadata until the file changes.
+     */
+    private String etag(final Path file, final PathIndex.Entry metadata) throws IOException {
+        if (!strongEtags) {
+            return String.format("\"%x-%x-%x\"", Objects.hashCode(metadata.fileKey()), metadata.size(), metadata.lastModified());
+        }
 
-        if (isUnauthorizedPathAccess(pathToFile)) {
-            throw new Error("Unauthorized access to path outside root working directory: " + pathAsString);
+        String hash = metadata.contentHash();
+        if (hash == null) {
+            hash = sha256(file);
+            metadata.contentHash(hash);
         }
+        return "\"" + hash + "\"";
+    }
 
-        if (Files.isDirectory(pathToFile)) {
-            return readDirectory(relativeFilePath);
-        } else {
-            return readFile(relativeFilePath);
+    static boolean notModified(final HTTPRequest request, final String etag, final long lastModified) {
+        final String ifNoneMatch = request.header(Const.Headers.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (final String candidate : ifNoneMatch.split(",")) {
+                final String tag = candidate.trim();
+                if (tag.equals("*") || Compressor.identity(opaque(tag)).equals(opaque(etag))) {
+                    return true;
+                }
+            }
+            return false;
         }
+
+        final String ifModifiedSince = request.header(Const.Headers.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            try {
+                final long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return lastModified / 1000 <= since / 1000;
+            } catch (final DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
     }
 
-    private String readFile(final String relativeFilePath) throws IOException {
-        final File file = file(relativeFilePath);
+    /**
+     * Weak comparison ignores the weakness indicator.
+     */
+    private static String opaque(final String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
 
-        if (file == null) {
-            return null;
+    static String httpDate(final long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    private static String sha256(final Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
 
-        return String.join("\n", Files.readAllLines(file.toPath()));
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
     }
 
-    private String readDirectory(final String relativeDirectoryPath) {
-        return ls(pathAsString + relativeDirectoryPath).stream()
-            .map(e -> e.getAbsolutePath().replace(pathAsString, ""))
-            .collect(Collectors.joining("\n"));
+    private HTTPResponse post(final HTTPRequest request) {
+        try {
+            final long bytesWritten = write(request.path(), request.body());
+
+            return written(request.path(), bytesWritten);
+        } catch (final IOException e) {
+            return StaticResponse.WRITE_FAILED.response(request.path() + "\n" + e.getMessage());
+        } catch (final FileServerProtocol.Error e) {
+            return StaticResponse.UNAUTHORIZED.response(e.getMessage());
+        }
+    }
+
+    private List<File> files() {
+        return ls(pathAsString);
+    }
+
+    private File file(final String relativeFilePath) {
+        if (index != null) {
+            final Path file = index.file(relativeFilePath);
+            return file != null ? file.toFile() : null;
+        }
+
+        return files().stream().filter(e -> e.getAbsolutePath().equals(pathAsString + relativeFilePath)).findFirst().orElse(null);
     }
 
-    private void write(final String relativeFilePath, final String content) throws IOException, FileServerProtocol.Error {
+    private void changed(final String relativeFilePath) {
+        if (cache != null) {
+            cache.invalidate(relativeFilePath);
+        }
+        if (index != null) {
+            index.refresh(relativeFilePath);
+        }
+    }
+
+    private Path resolve(final String relativeFilePath) throws IOException, FileServerProtocol.Error {
         final Path pathToFile = Paths.get(pathAsString + relativeFilePath);
 
         if (isUnauthorizedPathAccess(pathToFile)) {
             throw new Error("Unauthorized access to path outside root working directory: " + pathAsString);
         }
 
+        return pathToFile;
+    }
+
+    private long write(final String relativeFilePath, final ByteBuffer content) throws IOException, FileServerProtocol.Error {
+        final Path pathToFile = resolve(relativeFilePath);
+
         if (!Files.exists(pathToFile.getParent())) {
-            Files.createDirectory(pathToFile.getParent());
+            Files.createDirectories(pathToFile.getParent());
         }
-        final File file = new File(pathToFile.toAbsolutePath().toString());
-        try (final FileWriter fw = new FileWriter(file, false)) {
-            fw.write(content);
+        final AtomicWrite write = AtomicWrite.open(pathToFile);
+        try {
+            if (content != null) {
+                write.write(content);
+            }
+        } catch (final IOException e) {
+            write.abort();
+            throw e;
         }
+        return commit(relativeFilePath, write);
     }
 
-    private List<String> fileNames(final String directoryName) {
-        final var files = ls(directoryName);
-        return files.stream()
-            .map(File::getAbsolutePath)
-            .map(e -> e.replace(pathAsString, ""))
-            .collect(Collectors.toList());
+    /**
+     * @return the number of bytes written, once the write is durable if so configured
+     */
+    private long commit(final String relativeFilePath, final AtomicWrite write) throws IOException {
+        final Runnable committed = () -> changed(relativeFilePath);
+        return groupCommit != null ? groupCommit.commit(write, committed) : write.commit(committed);
     }
 
+    private static HTTPResponse written(final String relativeFilePath, final long bytesWritten) {
+        return HTTPResponse.builder()
+            .statusCode("200")
+            .statusMessage("OK")
+            .headers(Map.of(
+                "Accept", "*/*"
+            ))
+            .body("File contents successfully written to: " + relativeFilePath + "\n" + bytesWritten + " bytes written")
+            .build();
+    }
 
     private List<File> ls(final String directoryName) {
         return lsRec(directoryName, new ArrayList<>());
@@ -240,6 +512,40 @@ public class FileServerProtocol implements ApplicationProtocol.Response {
         return !(pathRequested.toFile().getCanonicalPath().startsWith(pathAsString));
     }
 
+    private static class FileUpload implements ApplicationProtocol.Upload {
+        private final String relativeFilePath;
+
+        private final AtomicWrite write;
+
+        private final Committer committer;
+
+        FileUpload(final String relativeFilePath, final AtomicWrite write, final Committer committer) {
+            this.relativeFilePath = relativeFilePath;
+            this.write = write;
+            this.committer = committer;
+        }
+
+        @Override
+        public void write(final ByteBuffer chunk) throws IOException {
+            write.write(chunk);
+        }
+
+        @Override
+        public HTTPResponse complete() throws IOException {
+            return written(relativeFilePath, committer.commit(relativeFilePath, write));
+        }
+
+        @Override
+        public void abort() {
+            write.abort();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Committer {
+        long commit(String relativeFilePath, AtomicWrite write) throws IOException;
+    }
+
     public static class Error extends Throwable {
         public Error(final String message) {
             super(message);
@@ -0,0 +1,213 @@
+package httpnio.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes writes durable before they are acknowledged, without paying for a sync per write. Writes committed within a
+ * window of the first one waiting, or while the previous batch is being synced, are synced together by a single
+ * thread: the content of every file, then the renames over their targets, then once per directory the entries the
+ * renames changed. The file system folds the syncs of a batch into about one journal commit, so many clients pay for
+ * one.
+ * <p>
+ * A write blocks the thread committing it until it is durable, so a batch never holds more writes than there are
+ * threads serving them: the threads of the pool in pool mode, the disk threads in reactor mode, while virtual mode has
+ * no such bound. Past that, widening the window only adds latency.
+ * <p>
+ * The sizes of the batches and the latency of each commit are recorded, to tune the window against the latency
+ * writes can afford. They are logged periodically while writes come in, and when the server stops.
+ */
+@Slf4j
+class GroupCommit {
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long windowNanos;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private final Histogram batchSizes = new Histogram();
+
+    private final Histogram latencies = new Histogram();
+
+    private final Thread committer;
+
+    private volatile boolean isRunning = true;
+
+    /**
+     * @param windowMicros how long the first write of a batch waits for others to join it
+     */
+    GroupCommit(final long windowMicros) {
+        windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        committer = new Thread(this::run, "group-commit-thread");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Syncs the write and commits it with {@link AtomicWrite#commit(Runnable)}, as part of the next batch.
+     *
+     * @return the number of bytes written, once the write is durable
+     */
+    long commit(final AtomicWrite write, final Runnable committed) throws IOException {
+        final Pending pending = new Pending(write, committed);
+        queue.add(pending);
+        if (!isRunning && queue.remove(pending)) {
+            write.abort();
+            throw new IOException("Server shutting down");
+        }
+
+        try {
+            return pending.done.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Number of writes per batch.
+     */
+    Histogram batchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * In microseconds, from a write being committed to it being durable.
+     */
+    Histogram latencies() {
+        return latencies;
+    }
+
+    void shutdown() {
+        isRunning = false;
+        committer.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("batch size %s, latency (us) %s", batchSizes, latencies);
+    }
+
+    private void run() {
+        final List<Pending> batch = new ArrayList<>();
+        long reported = System.nanoTime();
+        try {
+            while (isRunning) {
+                final Pending first = queue.take();
+                batch.add(first);
+                final long deadline = first.started + windowNanos;
+                long wait;
+                while (batch.size() < MAX_BATCH_SIZE && (wait = deadline - System.nanoTime()) > 0) {
+                    final Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+
+                commit(batch);
+                batch.clear();
+
+                if (System.nanoTime() - reported > REPORT_INTERVAL_NANOS) {
+                    log.info("group commit: {}", this);
+                    reported = System.nanoTime();
+                }
+            }
+        } catch (final InterruptedException e) {
+            // Shutting down
+        }
+
+        queue.drainTo(batch);
+        for (final var pending : batch) {
+            pending.write.abort();
+            pending.done.completeExceptionally(new IOException("Server shutting down"));
+        }
+    }
+
+    private void commit(final List<Pending> batch) {
+        final long start = System.nanoTime();
+
+        final List<Pending> synced = new ArrayList<>(batch.size());
+        for (final var pending : batch) {
+            try {
+                pending.write.force();
+                synced.add(pending);
+            } catch (final IOException e) {
+                pending.write.abort();
+                pending.done.completeExceptionally(e);
+            }
+        }
+
+        final Map<Path, List<Pending>> directories = new LinkedHashMap<>();
+        final Map<Pending, Long> bytesWritten = new HashMap<>();
+        for (final var pending : synced) {
+            try {
+                bytesWritten.put(pending, pending.write.commit(pending.committed));
+                directories.computeIfAbsent(pending.write.target().getParent(), directory -> new ArrayList<>()).add(pending);
+            } catch (final IOException e) {
+                pending.done.completeExceptionally(e);
+            }
+        }
+
+        for (final var directory : directories.entrySet()) {
+            IOException failure = null;
+            try (final FileChannel channel = FileChannel.open(directory.getKey(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (final IOException e) {
+                failure = e;
+            }
+
+            final long now = System.nanoTime();
+            for (final var pending : directory.getValue()) {
+                if (failure != null) {
+                    pending.done.completeExceptionally(failure);
+                } else {
+                    pending.done.complete(bytesWritten.get(pending));
+                }
+                latencies.record(TimeUnit.NANOSECONDS.toMicros(now - pending.started));
+            }
+        }
+
+        batchSizes.record(batch.size());
+        log.debug("group commit of {} writes to {} directories in {}us",
+            batch.size(), directories.size(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    private static final class Pending {
+        private final AtomicWrite write;
+
+        private final Runnable committed;
+
+        private final long started = System.nanoTime();
+
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Pending(final AtomicWrite write, final Runnable committed) {
+            this.write = write;
+            this.committed = committed;
+        }
+    }
+}
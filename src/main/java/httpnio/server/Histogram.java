@@ -0,0 +1,87 @@
+package httpnio.server;
+
+/**
+ * Distribution of recorded values in log-linear buckets: values below 8 are counted exactly, larger ones in 8 buckets
+ * per power of two, so percentiles are reported within 12.5% of the actual value whatever the range.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+    private long count = 0;
+
+    private long sum = 0;
+
+    private long max = 0;
+
+    synchronized void record(final long value) {
+        final long recorded = Math.max(0, value);
+        counts[index(recorded)]++;
+        count++;
+        sum += recorded;
+        max = Math.max(max, recorded);
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    synchronized long max() {
+        return max;
+    }
+
+    synchronized double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the value at the percentile, capped by the largest value recorded
+     */
+    synchronized long percentile(final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+            count, mean(), percentile(50), percentile(90), percentile(99), max);
+    }
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + index % SUB_BUCKETS) * width + width - 1;
+    }
+}
@@ -0,0 +1,270 @@
+package httpnio.server;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * In-memory index of every file and directory under the served directory, keyed by path relative to it (e.g.
+ * {@code /some/hello.txt}), so finding a file does not involve walking the tree.
+ * <p>
+ * The tree is walked once when the index is built, then kept current from {@link WatchService} events by the index's
+ * own thread. Since events arrive asynchronously, a lookup that misses checks the file system once before reporting
+ * the file as missing, and writers of the server itself {@link #refresh(String)} what they wrote. The miss is then
+ * remembered, so requests for a path that does not exist do not each hit the file system, until an entry is put at
+ * that path.
+ * <p>
+ * The temporary files of {@link AtomicWrite} are not indexed, as they are not served.
+ * <p>
+ * Entries are sorted by path, so the entries under a directory are contiguous and dropping them when the directory is
+ * deleted does not scan the whole index.
+ */
+@Slf4j
+class PathIndex extends Thread {
+
+    /**
+     * Misses remembered at most, forgotten all at once past that so requests for random paths cannot grow the set.
+     */
+    private static final int MAX_MISSES = 64 * 1024;
+
+    private final Path root;
+
+    private final WatchService watchService;
+
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of entries put so far, for a miss to tell whether an entry may have been put while it was looked up.
+     */
+    private final AtomicLong puts = new AtomicLong();
+
+    PathIndex(final Path root) throws IOException {
+        super("path-index-thread");
+        setDaemon(true);
+        this.root = root.toRealPath();
+        watchService = root.getFileSystem().newWatchService();
+        index(this.root);
+        log.debug("indexed {} paths under {}", entries.size(), this.root);
+    }
+
+    /**
+     * Metadata of a path as of the last change seen. Replaced as a whole when the path changes, so anything derived
+     * from the file's contents can be memoized on it.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    static final class Entry {
+        private final boolean directory;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final Object fileKey;
+
+        private volatile String contentHash;
+
+        private Entry(final BasicFileAttributes attributes) {
+            directory = attributes.isDirectory();
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+            fileKey = attributes.fileKey();
+        }
+
+        static Entry of(final BasicFileAttributes attributes) {
+            return new Entry(attributes);
+        }
+
+        void contentHash(final String contentHash) {
+            this.contentHash = contentHash;
+        }
+    }
+
+    /**
+     * @return the regular file at the given path relative to the root, or null if there is none
+     */
+    Path file(final String relativePath) {
+        final Entry entry = entry(relativePath);
+        return entry != null && !entry.directory() ? root.resolve(relativePath.substring(1)) : null;
+    }
+
+    /**
+     * @return the metadata of the given path relative to the root, or null if nothing exists there
+     */
+    Entry entry(final String relativePath) {
+        final Entry entry = entries.get(relativePath);
+        if (entry != null || missing.contains(relativePath)) {
+            return entry;
+        }
+        return refresh(relativePath);
+    }
+
+    /**
+     * Brings the entry of the given path up to date with the file system.
+     */
+    Entry refresh(final String relativePath) {
+        if (!relativePath.startsWith("/")) {
+            return null;
+        }
+
+        final long seen = puts.get();
+        try {
+            final Path path = root.resolve(relativePath.substring(1)).normalize();
+            if (!path.startsWith(root) || !key(path).equals(relativePath)) {
+                return null;
+            }
+            return put(path, Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (final InvalidPathException | NoSuchFileException e) {
+            entries.remove(relativePath);
+            miss(relativePath, seen);
+            return null;
+        } catch (final IOException e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            return null;
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void shutdown() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            final Path directory = directories.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    reindex();
+                } else if (directory != null) {
+                    changed(event.kind(), directory.resolve((Path) event.context()));
+                }
+            }
+
+            if (!key.reset()) {
+                directories.remove(key);
+            }
+        }
+    }
+
+    private void changed(final WatchEvent.Kind<?> kind, final Path path) {
+        if (kind == ENTRY_DELETE) {
+            final String key = key(path);
+            final Entry removed = entries.remove(key);
+            if (removed != null && removed.directory()) {
+                // '0' follows '/', so the range holds exactly the paths under the directory
+                entries.subMap(key + "/", key + "0").clear();
+            }
+        } else if (Files.isDirectory(path)) {
+            if (kind == ENTRY_CREATE) {
+                index(path);
+            }
+        } else {
+            refresh(key(path));
+        }
+    }
+
+    private void reindex() {
+        log.warn("file system events were lost, rebuilding the index of {}", root);
+        entries.clear();
+        missing.clear();
+        index(root);
+    }
+
+    private void index(final Path directory) {
+        try {
+            Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attributes) throws IOException {
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    put(dir, attributes);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                    put(file, attributes);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                    log.debug("skipping {}: {}", file, e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (final IOException | ClosedWatchServiceException e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private Entry put(final Path path, final BasicFileAttributes attributes) {
+        if (!attributes.isDirectory() && !attributes.isRegularFile()) {
+            return null;
+        }
+        if (path.getFileName() != null && AtomicWrite.isPartial(path.getFileName().toString())) {
+            return null;
+        }
+        final String key = key(path);
+        final Entry entry = Entry.of(attributes);
+        entries.put(key, entry);
+        puts.incrementAndGet();
+        missing.remove(key);
+        return entry;
+    }
+
+    /**
+     * Remembers the path as missing, unless an entry was put while it was looked up: that entry may be the one at the
+     * path, whose miss would then never be forgotten.
+     */
+    private void miss(final String relativePath, final long seen) {
+        if (missing.size() >= MAX_MISSES) {
+            missing.clear();
+        }
+        missing.add(relativePath);
+        if (puts.get() != seen) {
+            missing.remove(relativePath);
+        }
+    }
+
+    private String key(final Path path) {
+        final StringBuilder key = new StringBuilder();
+        for (final Path name : root.relativize(path)) {
+            if (!name.toString().isEmpty()) {
+                key.append('/').append(name);
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package httpnio.server;
+
+import httpnio.common.ApplicationProtocol;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+@Slf4j
+class Reactor extends Thread {
+
+    private final Selector selector;
+
+    private final ApplicationProtocol.Response applicationProtocol;
+
+    private final ConnectionManager connectionManager;
+
+    private final Executor disk;
+
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+    private final Queue<SocketChannel> evicted = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile int connections = 0;
+
+    private volatile boolean isRunning = true;
+
+    Reactor(
+        final int id,
+        final ApplicationProtocol.Response applicationProtocol,
+        final ConnectionManager connectionManager,
+        final Executor disk) throws IOException {
+        super("reactor-thread-" + id);
+        this.applicationProtocol = applicationProtocol;
+        this.connectionManager = connectionManager;
+        this.disk = disk;
+        selector = Selector.open();
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                selector.select();
+                registerPending();
+                closeEvicted();
+                runTasks();
+                final var keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    dispatch(key);
+                }
+                connections = selector.keys().size();
+            } catch (final IOException | RuntimeException e) {
+                log.error(e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            for (final var key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (final IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    void register(final SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the task on this reactor's thread, e.g. to hand back the outcome of file access done on the disk threads
+     * to the connection that asked for it.
+     */
+    void execute(final Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Threads file access is done on, so a slow disk never holds up the connections of this reactor that do not
+     * touch it.
+     */
+    Executor disk() {
+        return disk;
+    }
+
+    int load() {
+        return connections + pending.size();
+    }
+
+    void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    private void registerPending() throws IOException {
+        SocketChannel channel;
+        while ((channel = pending.poll()) != null) {
+            log.debug("connection accepted from {}", channel.getRemoteAddress());
+            final SocketChannel accepted = channel;
+            final var lease = connectionManager.acquire(channel.getRemoteAddress(), () -> evict(accepted));
+            if (lease == null) {
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key, this, applicationProtocol, lease));
+        }
+    }
+
+    /**
+     * Called by the connection manager: the connection is closed on this reactor's thread, which owns its state.
+     */
+    private void evict(final SocketChannel channel) {
+        if (channel.isOpen()) {
+            evicted.add(channel);
+            selector.wakeup();
+        }
+    }
+
+    private void closeEvicted() {
+        SocketChannel channel;
+        while ((channel = evicted.poll()) != null) {
+            final SelectionKey key = channel.keyFor(selector);
+            if (key != null && key.attachment() != null) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+    }
+
+    /**
+     * A task failing is logged and does not keep the others from running, tasks being responsible for closing the
+     * connection they were run for.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                log.error("task failed", e);
+            }
+        }
+    }
+
+    private void dispatch(final SelectionKey key) {
+        final Connection connection = (Connection) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (key.isReadable()) {
+                connection.read();
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        } catch (final IOException e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            connection.close();
+        } catch (final RuntimeException e) {
+            // A bug handling one connection must not end the thread all the others are served on
+            log.error("connection failed", e);
+            connection.close();
+        }
+    }
+}
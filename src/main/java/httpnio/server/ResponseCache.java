@@ -0,0 +1,261 @@
+package httpnio.server;
+
+import httpnio.common.HTTPResponse;
+import httpnio.common.ResponseEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded cache of fully encoded file responses, kept off heap in direct buffers so hot files cost neither a disk
+ * read nor an encoding per request. Hits hand out the same response, whose {@link HTTPResponse#encoded()} is a
+ * duplicate of the cached buffer rather than a copy.
+ * <p>
+ * Entries are dropped as soon as the file's modification time or size no longer match. When full, the least
+ * recently used entries are only evicted for a file that has been requested more often than them (TinyLFU
+ * admission), so a scan of one-off files cannot push the hot set out.
+ */
+class ResponseCache {
+
+    private static final long MAX_ENTRY_SIZE = 1024 * 1024;
+
+    private final long capacity;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch sketch;
+
+    private long size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long hitBytes = 0;
+
+    private long evictions = 0;
+
+    private long rejections = 0;
+
+    ResponseCache(final long capacity) {
+        this.capacity = capacity;
+        sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, capacity / 8192)));
+    }
+
+    /**
+     * @return the cached response for the file, or null if it is not cached or the cached copy is stale
+     */
+    synchronized HTTPResponse get(final String key, final PathIndex.Entry metadata) {
+        sketch.increment(key);
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.matches(metadata)) {
+            hits++;
+            hitBytes += entry.weight();
+            return entry.response;
+        }
+
+        if (entry != null) {
+            remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Caches the response for the file if it is worth it, reading the file in. Must follow a {@link #get} miss for
+     * the same key.
+     *
+     * @return the cached response if admitted, else the response given
+     */
+    HTTPResponse admit(final String key, final PathIndex.Entry metadata, final HTTPResponse response) throws IOException {
+        final long weight = ResponseEncoder.headLength(response) + response.file().count();
+        if (weight > MAX_ENTRY_SIZE || !admits(key, weight)) {
+            return response;
+        }
+
+        final ByteBuffer encoded = ResponseEncoder.encodeHead(response, ByteBuffer.allocateDirect((int) weight));
+        response.file().read(encoded);
+        encoded.flip();
+        final HTTPResponse cached = response.toBuilder().encoded(encoded).build();
+        synchronized (this) {
+            if (!admits(key, weight)) {
+                return response;
+            }
+            evictFor(weight);
+            remove(key);
+            entries.put(key, new Entry(cached, metadata.lastModified(), metadata.size()));
+            size += weight;
+        }
+        return cached;
+    }
+
+    /**
+     * Drops the file's entry, for writers that cannot rely on the modification time changing.
+     */
+    synchronized void invalidate(final String key) {
+        remove(key);
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long hitBytes() {
+        return hitBytes;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "%d entries, %d/%d bytes, %d hits (%d bytes), %d misses, %d evictions, %d rejections",
+            entries.size(), size, capacity, hits, hitBytes, misses, evictions, rejections);
+    }
+
+    /**
+     * Whether there is room for the candidate, or the entries that would have to make room for it are all requested
+     * less often than it.
+     */
+    private synchronized boolean admits(final String key, final long weight) {
+        if (weight > capacity) {
+            return false;
+        }
+
+        final int frequency = sketch.frequency(key);
+        long free = capacity - size;
+        for (final var victim : entries.entrySet()) {
+            if (free >= weight) {
+                break;
+            }
+            if (victim.getKey().equals(key)) {
+                free += victim.getValue().weight();
+                continue;
+            }
+            if (sketch.frequency(victim.getKey()) >= frequency) {
+                rejections++;
+                return false;
+            }
+            free += victim.getValue().weight();
+        }
+        return true;
+    }
+
+    private void evictFor(final long weight) {
+        final List<String> victims = new ArrayList<>();
+        long free = capacity - size;
+        for (final var victim : entries.entrySet()) {
+            if (free >= weight) {
+                break;
+            }
+            victims.add(victim.getKey());
+            free += victim.getValue().weight();
+        }
+        for (final var victim : victims) {
+            remove(victim);
+            evictions++;
+        }
+    }
+
+    private void remove(final String key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.weight();
+        }
+    }
+
+    private static final class Entry {
+        private final HTTPResponse response;
+
+        private final long lastModified;
+
+        private final long fileSize;
+
+        private final long weight;
+
+        Entry(final HTTPResponse response, final long lastModified, final long fileSize) {
+            this.response = response;
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            weight = response.encoded().capacity();
+        }
+
+        boolean matches(final PathIndex.Entry metadata) {
+            return metadata.lastModified() == lastModified && metadata.size() == fileSize;
+        }
+
+        long weight() {
+            return weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters estimating how often each key was requested lately. All counters are halved
+     * once enough increments have been recorded, so past popularity fades out.
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+
+        private static final int MAX_COUNT = 15;
+
+        private static final int[] SEEDS = {0x97cb3127, 0xb0f6aa4d, 0x6e0b1f87, 0x3c6ef372};
+
+        private final byte[][] counters;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions = 0;
+
+        FrequencySketch(final int expectedEntries) {
+            final int width = Integer.highestOneBit(expectedEntries * 2 - 1);
+            counters = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = 10 * expectedEntries;
+        }
+
+        void increment(final Object key) {
+            final int hash = key.hashCode();
+            for (int i = 0; i < DEPTH; i++) {
+                final int index = index(hash, i);
+                if (counters[i][index] < MAX_COUNT) {
+                    counters[i][index]++;
+                }
+            }
+
+            if (++additions >= sampleSize) {
+                for (final byte[] row : counters) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(final Object key) {
+            final int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, counters[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(final int hash, final int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+    }
+}
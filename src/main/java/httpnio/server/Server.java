@@ -8,22 +8,21 @@ import lombok.SneakyThrows;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.*;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
 
 import static httpnio.common.Packet.State.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @SuppressWarnings("squid:S2189")
 @Slf4j
@@ -35,9 +34,33 @@ public class Server {
 
     private final Server.Configuration configuration;
 
+    private final ConnectionManager connectionManager;
+
+    private final ResponseCache responseCache;
+
+    private final Compressor compressor;
+
+    private final GroupCommit groupCommit;
+
+    private ExecutorService disk;
+
+    private PathIndex pathIndex;
+
+    private Archive archive;
+
+    private Acceptor acceptor;
+
+    private Thread shutdownHook;
+
     public Server(final Server.Configuration configuration) {
         this.configuration = configuration;
-        executorService = Executors.newFixedThreadPool(configuration.threadPoolSize());
+        connectionManager = new ConnectionManager(configuration);
+        responseCache = new ResponseCache(configuration.cacheSize() * 1024L * 1024L);
+        compressor = configuration.compression() ? new Compressor(configuration.cacheSize() * 1024L * 1024L) : null;
+        groupCommit = configuration.durable() ? new GroupCommit(configuration.commitWindow()) : null;
+        executorService = configuration.mode() == Mode.VIRTUAL
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(configuration.threadPoolSize());
     }
 
     public synchronized void run() {
@@ -49,22 +72,121 @@ public class Server {
         log.info("using port {}", configuration.port());
         try {
             isRunning = true;
-            new ServerThread().start();
-            log.debug("server started");
+            shutdownHook = new Thread(this::stop, "shutdown-thread");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+            connectionManager.start();
+            if (configuration.applicationProtocolType() == ApplicationProtocol.Type.FILESERVER) {
+                pathIndex = new PathIndex(Paths.get(configuration.directory()));
+                pathIndex.start();
+            } else if (configuration.applicationProtocolType() == ApplicationProtocol.Type.ARCHIVE) {
+                archive = Archive.open(Paths.get(configuration.archive()));
+                log.info("serving {} files from archive {}", archive.count(), configuration.archive());
+            }
+            if (configuration.transportProtocolType() == TransportProtocol.Type.TCP && configuration.mode() == Mode.REACTOR) {
+                disk = Executors.newFixedThreadPool(configuration.diskThreads(), runnable -> {
+                    final Thread thread = new Thread(runnable, "disk-io-thread");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                final var reactors = new Reactor[configuration.reactors()];
+                for (int i = 0; i < reactors.length; i++) {
+                    reactors[i] = new Reactor(i, applicationProtocol(), connectionManager, disk);
+                }
+                acceptor = new Acceptor(configuration, reactors);
+                acceptor.start();
+            } else {
+                new ServerThread().start();
+            }
+            log.debug("server started in {} mode", configuration.mode());
         } catch (final IOException e) {
             log.error(e.getMessage());
             e.printStackTrace();
         }
     }
 
-    public void stop() {
+    /**
+     * Also run on shutdown of the JVM, so the statistics of the run are logged whichever way the server ends.
+     */
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+
         isRunning = false;
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (final IllegalStateException e) {
+                // Already shutting down, the hook is running or about to
+            }
+        }
+        if (acceptor != null) {
+            acceptor.shutdown();
+        }
+        if (disk != null) {
+            disk.shutdownNow();
+        }
+        connectionManager.shutdown();
+        if (pathIndex != null) {
+            pathIndex.shutdown();
+        }
+        if (archive != null) {
+            close(archive);
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+        }
+        log.info("connections: {} live, {} evicted, {} rejected", liveConnections(), evictedConnections(), rejectedConnections());
+        log.info("response cache: {}", responseCache);
+        if (groupCommit != null) {
+            groupCommit.shutdown();
+            log.info("group commit: {}", groupCommit);
+        }
+    }
+
+    public int liveConnections() {
+        return connectionManager.live();
+    }
+
+    public long evictedConnections() {
+        return connectionManager.evicted();
+    }
+
+    public long rejectedConnections() {
+        return connectionManager.rejected();
+    }
+
+    public enum Mode {
+        POOL,
+        REACTOR,
+        VIRTUAL;
+
+        public static Mode of(final String name) {
+            if (name == null) {
+                return POOL;
+            }
+
+            switch (name) {
+                case "REACTOR":
+                case "reactor":
+                    return REACTOR;
+                case "VIRTUAL":
+                case "virtual":
+                    return VIRTUAL;
+                case "POOL":
+                case "pool":
+                default:
+                    return POOL;
+            }
+        }
     }
 
     class ServerThread extends Thread {
 
         private final ConcurrentHashMap<SocketAddress, BlockingQueue<Packet>> clientPacketQueueTable = new ConcurrentHashMap<>();
 
+        private final ConcurrentHashMap<SocketAddress, ConnectionManager.Lease> clientLeaseTable = new ConcurrentHashMap<>();
+
         private DatagramChannel channel;
 
         private ServerSocketChannel tcpChannel;
@@ -94,7 +216,13 @@ public class Server {
             while (isRunning) {
                 try {
                     if (configuration.transportProtocolType == TransportProtocol.Type.TCP) { // TCP
-                        executorService.execute(handler(tcpChannel.socket().accept(), null, null, null));
+                        final SocketChannel socketChannel = tcpChannel.accept();
+                        final var lease = connectionManager.acquire(socketChannel.getRemoteAddress(), () -> close(socketChannel));
+                        if (lease == null) {
+                            socketChannel.close();
+                        } else {
+                            executorService.execute(handler(socketChannel, null, null, null, lease));
+                        }
                     } else { // UDP
                         buffer.clear();
                         final SocketAddress router = channel.receive(buffer);
@@ -105,17 +233,17 @@ public class Server {
                             log.debug("incoming packet={}", packet);
                             log.debug("client={}", client);
 
-                            final var existingQueue = clientPacketQueueTable.putIfAbsent(client, new ArrayBlockingQueue<>(100));
-                            final BlockingQueue<Packet> clientPacketQueue = Objects.requireNonNull(
-                                clientPacketQueueTable.get(client),
-                                "client incoming packet queue should have been present in client table");
-
-                            clientPacketQueue.put(packet);
-                            if (packet.is(SYN) && existingQueue == null) {
+                            final var lease = clientLeaseTable.get(client);
+                            final BlockingQueue<Packet> clientPacketQueue = clientPacketQueueTable.get(client);
+                            if (lease != null && clientPacketQueue != null) {
+                                lease.touch();
+                                clientPacketQueue.put(packet);
+                                log.debug("received {} added to queue {}", packet, clientPacketQueue);
+                            } else if (packet.is(SYN)) {
                                 log.debug("{} wishes to establish connection", client);
-                                executorService.execute(handler(null, channel, client, clientPacketQueue));
+                                accept(client, packet);
                             } else {
-                                log.debug("received {} added to queue {}", packet, clientPacketQueue);
+                                log.debug("dropping {} from {}, no connection established", packet, client);
                             }
                         }
                     }
@@ -125,18 +253,35 @@ public class Server {
                 }
             }
         }
+
+        private void accept(final SocketAddress client, final Packet syn) throws IOException, InterruptedException {
+            final BlockingQueue<Packet> clientPacketQueue = new ArrayBlockingQueue<>(100);
+            final var lease = connectionManager.acquire(client, () -> {
+                clientLeaseTable.remove(client);
+                clientPacketQueueTable.remove(client, clientPacketQueue);
+            });
+            if (lease == null) {
+                return;
+            }
+
+            clientLeaseTable.put(client, lease);
+            clientPacketQueueTable.put(client, clientPacketQueue);
+            clientPacketQueue.put(syn);
+            executorService.execute(handler(null, channel, client, clientPacketQueue, lease));
+        }
     }
 
     private Runnable handler(
-        final Socket socket,
+        final SocketChannel socketChannel,
         final DatagramChannel channel,
         final SocketAddress client,
-        final BlockingQueue<Packet> queue) throws IOException {
+        final BlockingQueue<Packet> queue,
+        final ConnectionManager.Lease lease) throws IOException {
         switch (configuration.transportProtocolType()) {
             case UDP:
-                return new UDPHandler(channel, client, queue, configuration, transportProtocol(), applicationProtocol());
+                return new UDPHandler(channel, client, queue, configuration, transportProtocol(), applicationProtocol(), lease);
             case TCP:
-                return new TCPHandler(socket, configuration, transportProtocol(), applicationProtocol());
+                return new TCPHandler(socketChannel, configuration, transportProtocol(), applicationProtocol(), lease);
             default:
                 throw ErrorFactory.invalidTransportProtocol(configuration.transportProtocolType().name());
         }
@@ -156,12 +301,22 @@ public class Server {
     private ApplicationProtocol.Response applicationProtocol() throws IOException {
         switch (configuration.applicationProtocolType()) {
             case FILESERVER:
-                return new FileServerProtocol(configuration.directory());
+                return new FileServerProtocol(configuration.directory(), responseCache, pathIndex, configuration.strongEtags(), compressor, groupCommit);
+            case ARCHIVE:
+                return new ArchiveProtocol(archive);
             default:
                 throw ErrorFactory.invalidApplicationProtocol(configuration.applicationProtocolType().name());
         }
     }
 
+    private static void close(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException e) {
+            log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
     private static class UDPHandler implements Runnable, UDPSRProtocol.Agent {
 
         DatagramChannel channel;
@@ -180,6 +335,8 @@ public class Server {
 
         private final InetSocketAddress router;
 
+        private final ConnectionManager.Lease lease;
+
         @SneakyThrows
         public UDPHandler(
             final DatagramChannel channel,
@@ -187,13 +344,15 @@ public class Server {
             final BlockingQueue<Packet> queue,
             final Configuration configuration,
             final TransportProtocol transportProtocol,
-            final ApplicationProtocol.Response applicationProtocol) {
+            final ApplicationProtocol.Response applicationProtocol,
+            final ConnectionManager.Lease lease) {
             this.channel = channel;
             this.client = (InetSocketAddress) client;
             this.queue = queue;
             this.transportProtocol = transportProtocol;
             this.applicationProtocol = applicationProtocol;
             this.configuration = configuration;
+            this.lease = lease;
             router = configuration.router();
         }
 
@@ -207,7 +366,7 @@ public class Server {
                     if (request != null) {
                         log.info("request received, preparing response");
                         final var response = applicationProtocol.response(request);
-                        final var buffers = PacketUtil.split(response.toString().getBytes());
+                        final var buffers = PacketUtil.split(response.bytes());
                         final var packets = new Packet[buffers.length];
                         for (int i = 0; i < buffers.length; i++) {
                             packets[i] = Packet.builder()
@@ -229,6 +388,7 @@ public class Server {
                 log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
             } finally {
                 log.debug("disconnecting");
+                lease.release();
                 selector.close();
                 log.debug("exiting thread");
             }
@@ -307,10 +467,7 @@ public class Server {
 
         @Override
         public <T> T make(final List<Packet> packets) {
-            final var combinedPayload = packets.stream()
-                .filter(Objects::nonNull)
-                .map(Packet::payload)
-                .collect(Collectors.joining(""));
+            final var combinedPayload = PacketUtil.join(packets);
             try {
                 final var request = HTTPRequest.of(combinedPayload);
                 if (request.isLeft()) {
@@ -318,12 +475,12 @@ public class Server {
                     return (T) request.getLeft();
                 } else {
                     log.error("request invalid: {}", request.get());
-                    log.info("\nrequest: \n{}", combinedPayload);
+                    log.info("\nrequest: \n{}", new String(combinedPayload, UTF_8));
                     return null;
                 }
             } catch (final Exception e) {
                 log.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
-                log.debug("request: \n{}", combinedPayload);
+                log.debug("request: \n{}", new String(combinedPayload, UTF_8));
                 return null;
             }
         }
@@ -331,7 +488,7 @@ public class Server {
 
     private static class TCPHandler implements Runnable {
 
-        private final Socket socket;
+        private final SocketChannel channel;
 
         private final TransportProtocol transportProtocol;
 
@@ -339,81 +496,39 @@ public class Server {
 
         private final Server.Configuration configuration;
 
+        private final ConnectionManager.Lease lease;
+
         public TCPHandler(
-            final Socket socket,
+            final SocketChannel channel,
             final Configuration configuration,
             final TransportProtocol transportProtocol,
-            final ApplicationProtocol.Response applicationProtocol) {
-            this.socket = socket;
+            final ApplicationProtocol.Response applicationProtocol,
+            final ConnectionManager.Lease lease) {
+            this.channel = channel;
+            this.lease = lease;
             this.transportProtocol = transportProtocol;
             this.applicationProtocol = applicationProtocol;
             this.configuration = configuration;
         }
 
-        @SneakyThrows
         @Override
         public void run() {
-            try (final PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                 final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                log.debug("connection accepted");
-                boolean keepAlive = true;
-                int contentLength = 0;
-
-                while (keepAlive) {
-                    HTTPRequest request = null;
-                    final StringBuilder requestBuilder = new StringBuilder();
-                    String line;
-
-                    while ((line = in.readLine()) != null) {
-                        requestBuilder.append(line);
-                        requestBuilder.append(Const.CRLF);
-
-                        if (line.toLowerCase().contains(Const.Headers.CONTENT_LENGTH.toLowerCase())) {
-                            final var keyValue = line.split(":");
-                            contentLength = Integer.parseInt(keyValue[1].trim());
-                        }
-
-                        log.debug("line: {}", line);
-                        if (line.equalsIgnoreCase("")) {
-                            for (var i = 0; i < contentLength; i++) {
-                                requestBuilder.append((char) in.read());
-                            }
-
-                            break;
-                        }
-                    }
-
-                    log.debug("builder: {}", requestBuilder.toString());
-                    final var requestAttempt = HTTPRequest.of(requestBuilder.toString());
-
-                    if (requestAttempt.isLeft()) {
-                        request = requestAttempt.getLeft();
-                    } else {
-                        throw new HTTPRequest.RequestError(requestAttempt.get());
-                    }
-
-                    if (request != null) {
-                        log.debug("request:");
-                        log.debug(request.toString());
-                        final String responseText = applicationProtocol.response(request).toString();
-                        log.debug("response:");
-                        log.debug(responseText);
-                        out.print(responseText);
-                        out.flush();
-
-                        if (request.headers().containsKey(Const.Headers.CONNECTION)) {
-                            final String connection = request.headers().get(Const.Headers.CONNECTION);
-                            keepAlive = connection.equalsIgnoreCase("keep-alive");
-                        } else {
-                            keepAlive = false;
-                        }
-                    } else {
-                        log.debug("connection terminated");
-                        keepAlive = false;
-                    }
+            log.debug("connection accepted");
+            // Waiting for a free thread is not idleness, the timeout starts now
+            lease.touch();
+            final Connection connection = new Connection(channel, null, null, applicationProtocol, lease);
+            try {
+                while (connection.isOpen()) {
+                    connection.read();
                 }
-            } catch (final IOException | HTTPRequest.RequestError e) {
-                e.printStackTrace();
+            } catch (final ClosedChannelException e) {
+                // Also when evicted while waiting for a free thread, the channel is then closed before being read
+                log.debug("connection closed while idle");
+            } catch (final IOException e) {
+                log.debug("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+            } finally {
+                connection.close();
+                log.debug("connection terminated");
             }
         }
     }
@@ -432,18 +547,106 @@ public class Server {
 
         private final String directory;
 
+        /**
+         * Path of the archive served in place of the directory, with the ARCHIVE application protocol.
+         */
+        private final String archive;
+
+        private final Mode mode;
+
+        /**
+         * Threads of the pool in pool mode, each serving one connection for as long as it stays open.
+         */
+        private final int threads;
+
+        private final int reactors;
+
+        private final int diskThreads;
+
+        private final int idleTimeout;
+
+        private final int maxConnections;
+
+        private final int maxConnectionsPerPeer;
+
+        private final int cacheSize;
+
+        private final boolean strongEtags;
+
+        private final boolean compression;
+
+        private final boolean durable;
+
+        private final int commitWindow;
+
         public final int port() {
             return port == 0 || port == -1
                 ? Const.DEFAULT_SERVER_PORT
                 : port;
         }
 
+        public final String directory() {
+            return directory == null
+                ? Paths.get("").toAbsolutePath().toString()
+                : directory;
+        }
+
         public final InetSocketAddress router() throws UnknownHostException {
             return new InetSocketAddress(InetAddress.getByName(Const.DEFAULT_ROUTER_HOST), Const.DEFAULT_ROUTER_PORT);
         }
 
         public final int threadPoolSize() {
-            return Const.DEFAULT_THREAD_POOL_SIZE;
+            return threads <= 0
+                ? Const.DEFAULT_THREAD_POOL_SIZE
+                : threads;
+        }
+
+        public final int reactors() {
+            return reactors <= 0
+                ? Runtime.getRuntime().availableProcessors()
+                : reactors;
+        }
+
+        public final int diskThreads() {
+            return diskThreads <= 0
+                ? Const.DEFAULT_DISK_THREADS
+                : diskThreads;
+        }
+
+        /**
+         * In microseconds.
+         */
+        public final int commitWindow() {
+            return commitWindow <= 0
+                ? Const.DEFAULT_COMMIT_WINDOW_MICROS
+                : commitWindow;
+        }
+
+        public final int idleTimeout() {
+            return idleTimeout <= 0
+                ? Const.DEFAULT_IDLE_TIMEOUT_SECONDS
+                : idleTimeout;
+        }
+
+        public final int maxConnections() {
+            return maxConnections <= 0
+                ? Const.DEFAULT_MAX_CONNECTIONS
+                : maxConnections;
+        }
+
+        public final int maxConnectionsPerPeer() {
+            return maxConnectionsPerPeer <= 0
+                ? Const.DEFAULT_MAX_CONNECTIONS_PER_PEER
+                : maxConnectionsPerPeer;
+        }
+
+        /**
+         * In megabytes.
+         */
+        public final int cacheSize() {
+            return cacheSize <= 0
+                ? Const.DEFAULT_CACHE_SIZE_MB
+                : cacheSize;
         }
     }
 }
@@ -0,0 +1,132 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.HTTPResponse;
+import httpnio.common.ResponseEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Error response encoded once, up to the part of its text naming what the request was about, e.g. the path not found,
+ * so answering one only takes copying the encoded bytes and that tail into a single buffer. Shared by all connections:
+ * the responses handed out hold the same headers, which must not be modified.
+ */
+final class StaticResponse {
+
+    private static final byte[] CONTENT_LENGTH = (Const.Headers.CONTENT_LENGTH + ": ").getBytes(ISO_8859_1);
+
+    private static final byte[] END_OF_HEAD = (Const.CRLF + Const.CRLF).getBytes(ISO_8859_1);
+
+    static final StaticResponse NOT_FOUND = new StaticResponse("404", "NOT FOUND", "Could not find the specified file: ");
+
+    static final StaticResponse UNAUTHORIZED = new StaticResponse("401", "UNAUTHORIZED ACCESS", "");
+
+    static final StaticResponse BAD_REQUEST = new StaticResponse("400", "BAD REQUEST", "Invalid request: ");
+
+    static final StaticResponse BAD_LISTING = new StaticResponse("400", "BAD REQUEST", "Invalid listing parameter: ");
+
+    static final StaticResponse READ_FAILED = new StaticResponse("500", "INTERNAL SERVER ERROR", "The specified file could not be read: ");
+
+    static final StaticResponse WRITE_FAILED = new StaticResponse("500", "INTERNAL SERVER ERROR", "Could not write to file: ");
+
+    static final StaticResponse READ_ONLY = new StaticResponse("405", "METHOD NOT ALLOWED", Map.of(
+        "Accept", "*/*",
+        "Allow", "GET"
+    ), "The archive is read-only");
+
+    static final StaticResponse PAYLOAD_TOO_LARGE = new StaticResponse("413", "PAYLOAD TOO LARGE", Map.of(
+        "Accept", "*/*",
+        Const.Headers.CONNECTION, "close"
+    ), "Request body exceeded the maximum size of ");
+
+    private final HTTPResponse template;
+
+    /**
+     * Status line and headers, up to the value of the Content-Length header.
+     */
+    private final byte[] head;
+
+    private final byte[] text;
+
+    /**
+     * The response without a tail, encoded whole.
+     */
+    private final HTTPResponse untailed;
+
+    private StaticResponse(final String statusCode, final String statusMessage, final String text) {
+        this(statusCode, statusMessage, Map.of("Accept", "*/*"), text);
+    }
+
+    private StaticResponse(final String statusCode, final String statusMessage, final Map<String, String> headers, final String text) {
+        template = HTTPResponse.builder()
+            .statusCode(statusCode)
+            .statusMessage(statusMessage)
+            .headers(headers)
+            .build();
+
+        final ByteBuffer encoded = ResponseEncoder.encodeHead(template, ByteBuffer.allocate(ResponseEncoder.headLength(template)));
+        head = Arrays.copyOf(encoded.array(), encoded.capacity() - Const.CRLF.length() + CONTENT_LENGTH.length);
+        System.arraycopy(CONTENT_LENGTH, 0, head, encoded.capacity() - Const.CRLF.length(), CONTENT_LENGTH.length);
+        this.text = text.getBytes(UTF_8);
+        untailed = template.toBuilder().encoded(encode("")).build();
+    }
+
+    HTTPResponse response() {
+        return untailed;
+    }
+
+    /**
+     * @param tail appended to the text of the response
+     */
+    HTTPResponse response(final String tail) {
+        if (tail == null || tail.isEmpty()) {
+            return untailed;
+        }
+        return template.toBuilder().encoded(encode(tail)).build();
+    }
+
+    private ByteBuffer encode(final String tail) {
+        final byte[] encodedTail = isAscii(tail) ? null : tail.getBytes(UTF_8);
+        final int length = text.length + (encodedTail != null ? encodedTail.length : tail.length());
+        final int digits = digits(length);
+        final ByteBuffer out = ByteBuffer.allocate(head.length + digits + END_OF_HEAD.length + length).put(head);
+
+        int remaining = length;
+        for (int i = digits - 1; i >= 0; i--) {
+            out.put(out.position() + i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        out.position(out.position() + digits).put(END_OF_HEAD).put(text);
+
+        if (encodedTail != null) {
+            out.put(encodedTail);
+        } else {
+            for (int i = 0; i < tail.length(); i++) {
+                out.put((byte) tail.charAt(i));
+            }
+        }
+        return out.flip();
+    }
+
+    private static boolean isAscii(final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(final int value) {
+        int digits = 1;
+        for (int remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,328 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.ChunkedBody;
+import httpnio.common.FileRegion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A unit of outgoing data queued on a {@link Connection}, written as far as the channel accepts on each call.
+ */
+interface Transfer extends Closeable {
+
+    /**
+     * @return true once everything has been written, false if the channel could not take more for now or the data
+     * to write next has to be produced first
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Whether the data to write next has to be produced first by {@link #fill()}, which may access files.
+     */
+    default boolean needsFill() {
+        return false;
+    }
+
+    default void fill() throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Whether the end of the data is only marked by closing the connection after it, so nothing can follow it.
+     */
+    default boolean closesConnection() {
+        return false;
+    }
+
+    /**
+     * @return the bytes left to write if this is a plain buffer that can take part in a gathering write, else null
+     */
+    default ByteBuffer buffer() {
+        return null;
+    }
+
+    static Transfer of(final ByteBuffer buffer) {
+        return new BufferTransfer(buffer, null);
+    }
+
+    /**
+     * @param pool the buffer is released to once written, or once the transfer is closed
+     */
+    static Transfer of(final ByteBuffer buffer, final BufferPool pool) {
+        return new BufferTransfer(buffer, pool);
+    }
+
+    /**
+     * The region is sent with transferTo on the calling thread, for blocking channels driven by their own thread.
+     */
+    static Transfer of(final FileRegion region) {
+        return new FileTransfer(region, null);
+    }
+
+    /**
+     * @param pool buffers the region is read into piece by piece, each by a {@link #fill()}, so that a reactor only
+     * ever writes them out and never waits on the disk itself
+     */
+    static Transfer of(final FileRegion region, final BufferPool pool) {
+        return new FileTransfer(region, pool);
+    }
+
+    static Transfer of(final ChunkedBody body) {
+        return new ChunkedTransfer(body, true);
+    }
+
+    /**
+     * @param framed false to write the pieces as they are, for clients not supporting chunked transfer encoding
+     */
+    static Transfer of(final ChunkedBody body, final boolean framed) {
+        return new ChunkedTransfer(body, framed);
+    }
+
+    final class BufferTransfer implements Transfer {
+        private final ByteBuffer buffer;
+
+        private BufferPool pool;
+
+        BufferTransfer(final ByteBuffer buffer, final BufferPool pool) {
+            this.buffer = buffer;
+            this.pool = pool;
+        }
+
+        @Override
+        public boolean writeTo(final WritableByteChannel channel) throws IOException {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            close();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.release(buffer);
+                pool = null;
+            }
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+    }
+
+    final class FileTransfer implements Transfer {
+        private final FileRegion region;
+
+        private final BufferPool pool;
+
+        private FileChannel file;
+
+        private long transferred = 0;
+
+        /**
+         * Piece of the region read by the last fill and not written out yet, when read through the pool.
+         */
+        private ByteBuffer chunk;
+
+        private boolean closed = false;
+
+        FileTransfer(final FileRegion region, final BufferPool pool) {
+            this.region = region;
+            this.pool = pool;
+        }
+
+        @Override
+        public boolean writeTo(final WritableByteChannel channel) throws IOException {
+            if (pool == null) {
+                return transfer(channel);
+            }
+
+            if (chunk == null) {
+                fill();
+            }
+            channel.write(chunk);
+            if (chunk.hasRemaining()) {
+                return false;
+            }
+            synchronized (this) {
+                pool.release(chunk);
+                chunk = null;
+            }
+            if (transferred < region.count()) {
+                return false;
+            }
+
+            close();
+            return true;
+        }
+
+        @Override
+        public boolean needsFill() {
+            return pool != null && chunk == null;
+        }
+
+        /**
+         * Reads the next piece of the region. Runs on the disk threads while the connection may be closed on its own
+         * thread, so what it read is only kept if the transfer was not closed in the meantime.
+         */
+        @Override
+        public void fill() throws IOException {
+            final FileChannel opened = file != null ? file : region.open();
+            final ByteBuffer buffer = pool.acquire();
+            try {
+                buffer.limit((int) Math.min(buffer.capacity(), region.count() - transferred));
+                while (buffer.hasRemaining()) {
+                    if (opened.read(buffer, region.position() + transferred + buffer.position()) == -1) {
+                        throw new IOException("File was truncated while being sent: " + region.path());
+                    }
+                }
+            } catch (final IOException e) {
+                pool.release(buffer);
+                if (opened != file && !region.isShared()) {
+                    opened.close();
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    pool.release(buffer);
+                    if (!region.isShared()) {
+                        opened.close();
+                    }
+                    return;
+                }
+                file = opened;
+                transferred += buffer.position();
+                chunk = buffer.flip();
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            if (chunk != null) {
+                pool.release(chunk);
+                chunk = null;
+            }
+            if (file != null) {
+                if (!region.isShared()) {
+                    file.close();
+                }
+                file = null;
+            }
+        }
+
+        private boolean transfer(final WritableByteChannel channel) throws IOException {
+            if (file == null) {
+                file = region.open();
+            }
+
+            while (transferred < region.count()) {
+                final long n = file.transferTo(region.position() + transferred, region.count() - transferred, channel);
+                if (n <= 0) {
+                    if (file.size() < region.position() + region.count()) {
+                        throw new IOException("File was truncated while being sent: " + region.path());
+                    }
+                    return false;
+                }
+                transferred += n;
+            }
+
+            close();
+            return true;
+        }
+    }
+
+    /**
+     * Frames each piece of the body as a chunk when the previous one has been written, then ends the body with the
+     * last, empty, chunk. Pieces are only asked for as fast as the channel takes them, each by a {@link #fill()}.
+     * Unframed, the pieces are written as they are and the end of the body is marked by closing the connection.
+     */
+    final class ChunkedTransfer implements Transfer {
+        private static final byte[] LAST_CHUNK = ("0" + Const.CRLF + Const.CRLF).getBytes(ISO_8859_1);
+
+        private static final ByteBuffer NO_CHUNK = ByteBuffer.allocate(0);
+
+        private final ChunkedBody body;
+
+        private final boolean framed;
+
+        private ByteBuffer chunk;
+
+        private boolean last = false;
+
+        ChunkedTransfer(final ChunkedBody body, final boolean framed) {
+            this.body = body;
+            this.framed = framed;
+        }
+
+        @Override
+        public boolean writeTo(final WritableByteChannel channel) throws IOException {
+            if (chunk == null) {
+                fill();
+            }
+
+            channel.write(chunk);
+            if (chunk.hasRemaining()) {
+                return false;
+            }
+            if (last) {
+                close();
+                return true;
+            }
+            chunk = null;
+            return false;
+        }
+
+        @Override
+        public boolean needsFill() {
+            return chunk == null;
+        }
+
+        @Override
+        public boolean closesConnection() {
+            return !framed;
+        }
+
+        @Override
+        public void fill() throws IOException {
+            chunk = frame(body.next());
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+
+        private ByteBuffer frame(final ByteBuffer content) {
+            if (content == null) {
+                last = true;
+                return framed ? ByteBuffer.wrap(LAST_CHUNK) : NO_CHUNK;
+            }
+            if (!framed) {
+                return content;
+            }
+
+            final byte[] size = (Integer.toHexString(content.remaining()) + Const.CRLF).getBytes(ISO_8859_1);
+            return ByteBuffer.allocate(size.length + content.remaining() + 2)
+                .put(size)
+                .put(content)
+                .put((byte) '\r')
+                .put((byte) '\n')
+                .flip();
+        }
+    }
+}
@@ -37,8 +37,8 @@ public class EntryPointTest {
                         assertThat(response.statusLine()).isEqualTo(expected.statusLine());
                         assertThat(response.statusCode()).isEqualTo(expected.statusCode());
                         assertThat(response.headers()).isEqualTo(expected.headers());
-                        assertThat(Util.messageBodyWithoutNonIdempotentHeaders(response.body())).isEqualTo(Util.messageBodyWithoutNonIdempotentHeaders(
-                            expected.body()));
+                        assertThat(Util.messageBodyWithoutNonIdempotentHeaders(response.text())).isEqualTo(Util.messageBodyWithoutNonIdempotentHeaders(
+                            expected.text()));
                     })
                     .onFailure(failure -> {
                         throw new AssertionError("This should not happen");
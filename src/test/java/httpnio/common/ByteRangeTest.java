@@ -0,0 +1,34 @@
+package httpnio.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ByteRangeTest {
+
+    @Test
+    void resolvesRangesAgainstSize() {
+        final var ranges = ByteRange.of("bytes=0-9, 90-, -5, 95-200", 100);
+
+        assertThat(ranges).hasSize(4);
+        assertThat(ranges.get(0).toString()).isEqualTo("0-9");
+        assertThat(ranges.get(1).toString()).isEqualTo("90-99");
+        assertThat(ranges.get(2).toString()).isEqualTo("95-99");
+        assertThat(ranges.get(3).toString()).isEqualTo("95-99");
+        assertThat(ranges.get(0).contentRange(100)).isEqualTo("bytes 0-9/100");
+    }
+
+    @Test
+    void dropsUnsatisfiableRanges() {
+        assertThat(ByteRange.of("bytes=100-, 200-300", 100)).isEmpty();
+        assertThat(ByteRange.of("bytes=-0", 100)).isEmpty();
+    }
+
+    @Test
+    void ignoresMalformedHeaders() {
+        assertThat(ByteRange.of("items=0-1", 100)).isNull();
+        assertThat(ByteRange.of("bytes=5-1", 100)).isNull();
+        assertThat(ByteRange.of("bytes=a-b", 100)).isNull();
+        assertThat(ByteRange.of("bytes=-", 100)).isNull();
+    }
+}
@@ -0,0 +1,46 @@
+package httpnio.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkedDecoderTest {
+
+    private static final byte[] BODY = ("5;name=value\r\nhello\r\n" +
+        "7\r\n, world\r\n" +
+        "0\r\nTrailer: ignored\r\n\r\n").getBytes(UTF_8);
+
+    @Test
+    void decodesBodyFedOneByteAtATime() throws IOException {
+        final var decoder = new ChunkedDecoder();
+        final var out = new ByteArrayOutputStream();
+        for (int i = 0; i < BODY.length; i++) {
+            assertThat(decoder.isComplete()).isFalse();
+            decoder.decode(ByteBuffer.wrap(BODY, i, 1), out);
+        }
+
+        assertThat(decoder.isComplete()).isTrue();
+        assertThat(out.toString(UTF_8)).isEqualTo("hello, world");
+    }
+
+    @Test
+    void stopsAtEndOfBody() throws IOException {
+        final var in = ByteBuffer.allocate(BODY.length + 4).put(BODY).put("next".getBytes(UTF_8)).flip();
+
+        assertThat(new ChunkedDecoder().decode(in, new ByteArrayOutputStream())).isTrue();
+        assertThat(in.remaining()).isEqualTo(4);
+    }
+
+    @Test
+    void rejectsInvalidChunkSize() throws IOException {
+        final var decoder = new ChunkedDecoder();
+
+        assertThat(decoder.decode(ByteBuffer.wrap("zz\r\n".getBytes(UTF_8)), new ByteArrayOutputStream())).isFalse();
+        assertThat(decoder.isInvalid()).isTrue();
+    }
+}
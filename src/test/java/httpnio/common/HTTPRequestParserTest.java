@@ -0,0 +1,120 @@
+package httpnio.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HTTPRequestParserTest {
+
+    @Test
+    void parsesCompleteRequest() {
+        final var parser = new HTTPRequestParser();
+        final var buffer = ByteBuffer.wrap(("POST /some/hello.txt?x=1 HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "content-length:  5 \r\n" +
+            "Connection: keep-alive\r\n" +
+            "\r\n" +
+            "hello").getBytes(UTF_8));
+
+        assertThat(parser.parse(buffer)).isTrue();
+        assertThat(parser.method()).isEqualTo(HTTPMethod.POST);
+        assertThat(parser.target()).isEqualTo("/some/hello.txt?x=1");
+        assertThat(parser.headerCount()).isEqualTo(3);
+        assertThat(parser.header("HOST")).isEqualTo("localhost:8080");
+        assertThat(parser.header("Connection")).isEqualTo("keep-alive");
+        assertThat(parser.contentLength()).isEqualTo(5);
+        assertThat(UTF_8.decode(parser.body()).toString()).isEqualTo("hello");
+        assertThat(parser.length()).isEqualTo(buffer.limit());
+    }
+
+    @Test
+    void parsesPipelinedRequestsFedOneByteAtATime() {
+        final var bytes = ("GET /a.txt HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+            "POST /b.txt HTTP/1.1\nHost: localhost\nContent-Length: 3\n\nabc").getBytes(UTF_8);
+        final var parser = new HTTPRequestParser();
+        final var buffer = ByteBuffer.allocate(bytes.length);
+        final List<String> parsed = new ArrayList<>();
+
+        for (final byte b : bytes) {
+            buffer.put(b);
+            buffer.flip();
+            while (parser.parse(buffer)) {
+                parsed.add(parser.method() + " " + parser.target() + " " + UTF_8.decode(parser.body()));
+                buffer.position(buffer.position() + parser.length());
+                parser.reset();
+            }
+            buffer.compact();
+        }
+
+        assertThat(parsed).containsExactly("GET /a.txt ", "POST /b.txt abc");
+    }
+
+    @Test
+    void waitsForWholeBody() {
+        final var parser = new HTTPRequestParser();
+        final var buffer = ByteBuffer.wrap("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 10\r\n\r\nabc".getBytes(UTF_8));
+
+        assertThat(parser.parse(buffer)).isFalse();
+        assertThat(parser.state()).isEqualTo(HTTPRequestParser.State.BODY);
+        assertThat(parser.bodyOffset()).isEqualTo(buffer.limit() - 3);
+    }
+
+    @Test
+    void keepsHostAndTargetUnresolved() throws HTTPRequest.RequestError {
+        final var parser = new HTTPRequestParser();
+        assertThat(parser.parse(ByteBuffer.wrap("GET /a%20b.txt?x=1 HTTP/1.1\r\nHost: no-such-host.invalid:8080\r\n\r\n".getBytes(UTF_8)))).isTrue();
+
+        final var request = parser.request();
+        assertThat(request.host()).isEqualTo("no-such-host.invalid:8080");
+        assertThat(request.path()).isEqualTo("/a%20b.txt?x=1");
+        assertThat(request.url()).isNull();
+        assertThat(request.valid().isLeft()).isTrue();
+    }
+
+    @Test
+    void keepsHttp11ConnectionsAliveByDefault() throws HTTPRequest.RequestError {
+        assertThat(request("GET / HTTP/1.1\r\nHost: x\r\n\r\n").isKeepAlive()).isTrue();
+        assertThat(request("GET / HTTP/1.1\r\nHost: x\r\nConnection: Upgrade, close\r\n\r\n").isKeepAlive()).isFalse();
+        assertThat(request("GET / HTTP/1.0\r\nHost: x\r\n\r\n").isKeepAlive()).isFalse();
+        assertThat(request("GET / HTTP/1.0\r\nHost: x\r\nConnection: keep-alive, Upgrade\r\n\r\n").isKeepAlive()).isTrue();
+        assertThat(request("GET / HTTP/1.0\r\nHost: x\r\n\r\n").version()).isEqualTo("HTTP/1.0");
+    }
+
+    @Test
+    void rejectsMalformedRequestLine() {
+        final var parser = new HTTPRequestParser();
+
+        assertThat(parser.parse(ByteBuffer.wrap("GET /\r\n\r\n".getBytes(UTF_8)))).isFalse();
+        assertThat(parser.isInvalid()).isTrue();
+
+        parser.reset();
+        assertThat(parser.parse(ByteBuffer.wrap("FOO / HTTP/1.1\r\n\r\n".getBytes(UTF_8)))).isFalse();
+        assertThat(parser.error()).contains("FOO");
+    }
+
+    @Test
+    void rejectsAmbiguousBodyLength() {
+        final var parser = new HTTPRequestParser();
+
+        assertThat(parser.parse(ByteBuffer.wrap("POST / HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(UTF_8)))).isFalse();
+        assertThat(parser.isInvalid()).isTrue();
+
+        parser.reset();
+        assertThat(parser.parse(ByteBuffer.wrap("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 3\r\nContent-Length: 30\r\n\r\nabc".getBytes(UTF_8)))).isFalse();
+        assertThat(parser.error()).contains("Conflicting");
+
+        parser.reset();
+        assertThat(parser.parse(ByteBuffer.wrap("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 3\r\nContent-Length: 3\r\n\r\nabc".getBytes(UTF_8)))).isTrue();
+    }
+
+    private static HTTPRequest request(final String spec) throws HTTPRequest.RequestError {
+        final var parser = new HTTPRequestParser();
+        assertThat(parser.parse(ByteBuffer.wrap(spec.getBytes(UTF_8)))).isTrue();
+        return parser.request();
+    }
+}
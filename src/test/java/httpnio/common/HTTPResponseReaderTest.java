@@ -0,0 +1,68 @@
+package httpnio.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HTTPResponseReaderTest {
+
+    @Test
+    void readsResponsesFedOneByteAtATime() throws IOException {
+        final var reader = new HTTPResponseReader(oneByteAtATime(("HTTP/1.1 100 Continue\r\n\r\n" +
+            "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nConnection: keep-alive\r\n\r\nhello" +
+            "HTTP/1.1 200 OK\nTransfer-Encoding: chunked\n\n3\r\nabc\r\n2;x=y\r\nde\r\n0\r\n\r\n" +
+            "HTTP/1.1 304 NOT MODIFIED\r\nContent-Length: 42\r\n\r\n").getBytes(UTF_8)));
+
+        assertThat(reader.readHead()).isTrue();
+        assertThat(reader.statusCode()).isEqualTo("200");
+        assertThat(reader.contentLength()).isEqualTo(5);
+        assertThat(reader.headers()).containsEntry("Connection", "keep-alive");
+        assertThat(new String(reader.body().readAllBytes(), UTF_8)).isEqualTo("hello");
+
+        assertThat(reader.readHead()).isTrue();
+        assertThat(reader.isChunked()).isTrue();
+        assertThat(new String(reader.body().readAllBytes(), UTF_8)).isEqualTo("abcde");
+
+        assertThat(reader.readHead()).isTrue();
+        assertThat(reader.statusMessage()).isEqualTo("NOT MODIFIED");
+        assertThat(reader.body().read()).isEqualTo(-1);
+
+        assertThat(reader.readHead()).isFalse();
+    }
+
+    @Test
+    void skipsUnreadBodyOfPreviousResponse() throws IOException {
+        final var reader = new HTTPResponseReader(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\nabc" +
+            "HTTP/1.1 404 NOT FOUND\r\n\r\nmissing").getBytes(UTF_8)));
+
+        assertThat(reader.readHead()).isTrue();
+        assertThat(reader.readHead()).isTrue();
+        final var response = reader.response(null);
+        assertThat(response.statusCode()).isEqualTo("404");
+        assertThat(new String(response.body(), UTF_8)).isEqualTo("missing");
+    }
+
+    @Test
+    void failsOnTruncatedBody() throws IOException {
+        final var reader = new HTTPResponseReader(new ByteArrayInputStream("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nabc".getBytes(UTF_8)));
+
+        assertThat(reader.readHead()).isTrue();
+        assertThatThrownBy(() -> reader.response(null)).isInstanceOf(EOFException.class);
+    }
+
+    private static InputStream oneByteAtATime(final byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(final byte[] b, final int offset, final int length) {
+                return super.read(b, offset, Math.min(length, 1));
+            }
+        };
+    }
+}
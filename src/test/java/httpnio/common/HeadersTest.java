@@ -0,0 +1,45 @@
+package httpnio.common;
+
+import httpnio.Const;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeadersTest {
+
+    @Test
+    void looksUpNamesIgnoringCase() {
+        final var headers = new Headers();
+        headers.put("content-length", "5");
+        headers.put("X-Custom", "a");
+        headers.put("CONTENT-LENGTH", "6");
+
+        assertThat(headers.size()).isEqualTo(2);
+        assertThat(headers.get(Const.Headers.CONTENT_LENGTH)).isEqualTo("6");
+        assertThat(headers.name(0)).isSameAs(Const.Headers.CONTENT_LENGTH);
+        assertThat(headers.get("x-custom")).isEqualTo("a");
+        assertThat(headers.containsKey("Content-Type")).isFalse();
+
+        assertThat(headers.remove("content-length")).isEqualTo("6");
+        assertThat(new ArrayList<>(headers.keySet())).containsExactly("X-Custom");
+    }
+
+    @Test
+    void keepsParsedRequestHeaders() throws Exception {
+        final var parser = new HTTPRequestParser();
+        assertThat(parser.parse(ByteBuffer.wrap("GET / HTTP/1.1\r\nhost: localhost\r\nconnection: close\r\nX-Trace: 1\r\n\r\n".getBytes(UTF_8)))).isTrue();
+
+        final var headers = parser.request().headers();
+        assertThat(headers.name(0)).isSameAs(Const.Headers.HOST);
+        assertThat(headers.get(Const.Headers.CONNECTION)).isEqualTo("close");
+        assertThat(headers.get("x-trace")).isEqualTo("1");
+
+        headers.put(Const.Headers.CONNECTION, "keep-alive");
+        assertThat(headers.get("Connection")).isEqualTo("keep-alive");
+        assertThat(headers.get("Host")).isEqualTo("localhost");
+    }
+}
@@ -0,0 +1,46 @@
+package httpnio.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseEncoderTest {
+
+    @Test
+    void encodesHeadWithContentLength() {
+        final var response = HTTPResponse.builder()
+            .statusCode("404")
+            .statusMessage("NOT FOUND")
+            .headers(Map.of("Accept", "*/*"))
+            .body("missing")
+            .build();
+
+        assertThat(encode(response)).isEqualTo("HTTP/1.1 404 NOT FOUND\r\nAccept: */*\r\nContent-Length: 7\r\n\r\n");
+    }
+
+    @Test
+    void encodesUncachedStatusAndHeaders() {
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-Custom", "café ☃");
+        headers.put("Content-Length", "0");
+        final var response = HTTPResponse.builder()
+            .statusCode("418")
+            .statusMessage("I'M A TEAPOT")
+            .headers(headers)
+            .build();
+
+        assertThat(encode(response)).isEqualTo("HTTP/1.1 418 I'M A TEAPOT\r\nX-Custom: café ?\r\nContent-Length: 0\r\n\r\n");
+    }
+
+    private static String encode(final HTTPResponse response) {
+        final int length = ResponseEncoder.headLength(response);
+        final ByteBuffer buffer = ResponseEncoder.encodeHead(response, ByteBuffer.allocate(length + 8));
+        assertThat(buffer.position()).isEqualTo(length);
+        return new String(buffer.array(), 0, length, ISO_8859_1);
+    }
+}
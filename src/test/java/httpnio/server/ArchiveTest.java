@@ -0,0 +1,67 @@
+package httpnio.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArchiveTest {
+
+    @TempDir
+    Path root;
+
+    private Archive archive;
+
+    @BeforeEach
+    void buildArchive() throws IOException {
+        final Path directory = Files.createDirectory(root.resolve("site"));
+        for (final String file : List.of("a.txt", "b/c.txt", "b/d/e.txt", "b-f.txt", "g/h.txt")) {
+            Files.createDirectories(directory.resolve(file).getParent());
+            Files.writeString(directory.resolve(file), "content of " + file);
+        }
+
+        assertThat(Archive.build(directory, root.resolve("site.pack"))).isEqualTo(5);
+        archive = Archive.open(root.resolve("site.pack"));
+    }
+
+    @Test
+    void findsFilesByPath() throws IOException {
+        final int index = archive.find("/b/d/e.txt");
+
+        assertThat(index).isGreaterThanOrEqualTo(0);
+        assertThat(new String(archive.content(index).read(), UTF_8)).isEqualTo("content of b/d/e.txt");
+        assertThat(archive.find("/b/d")).isLessThan(0);
+        assertThat(archive.find("/missing.txt")).isLessThan(0);
+        archive.close();
+    }
+
+    @Test
+    void listsByPrefixAndCursor() throws IOException {
+        assertThat(list("", "/", null, Integer.MAX_VALUE, DirectoryListing.MAX_DEPTH))
+            .containsExactly("/a.txt", "/b-f.txt", "/b/c.txt", "/b/d/e.txt", "/g/h.txt");
+        assertThat(list("/b", "/b/", null, Integer.MAX_VALUE, 1)).containsExactly("/b/c.txt");
+        assertThat(list("", "/b", "/b-f.txt", 2, DirectoryListing.MAX_DEPTH)).containsExactly("/b/c.txt", "/b/d/e.txt");
+        archive.close();
+    }
+
+    private List<String> list(final String key, final String prefix, final String cursor, final int limit, final int depth) {
+        final var listing = new ArchiveListing(archive, key, prefix, cursor, limit, depth);
+        final List<String> paths = new ArrayList<>();
+        ByteBuffer chunk;
+        while ((chunk = listing.next()) != null) {
+            for (final String path : UTF_8.decode(chunk).toString().split("\n")) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,106 @@
+package httpnio.server;
+
+import httpnio.Const;
+import httpnio.common.FileRegion;
+import httpnio.common.HTTPResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressorTest {
+
+    @TempDir
+    Path directory;
+
+    private final Compressor compressor = new Compressor(1024 * 1024);
+
+    @AfterEach
+    void shutdown() {
+        compressor.shutdown();
+    }
+
+    @Test
+    void negotiatesPreferredCoding() {
+        assertThat(Compressor.negotiate(null)).isNull();
+        assertThat(Compressor.negotiate("identity")).isNull();
+        assertThat(Compressor.negotiate("deflate, gzip")).isEqualTo("gzip");
+        assertThat(Compressor.negotiate("gzip;q=0.5, deflate")).isEqualTo("deflate");
+        assertThat(Compressor.negotiate("GZIP;q=0.8, *;q=0.1")).isEqualTo("gzip");
+        assertThat(Compressor.negotiate("*")).isEqualTo("gzip");
+    }
+
+    @Test
+    void wildcardOnlyStandsForCodingsNotListed() {
+        assertThat(Compressor.negotiate("gzip;q=0, *")).isEqualTo("deflate");
+        assertThat(Compressor.negotiate("gzip;q=0, deflate;q=0, *")).isNull();
+        assertThat(Compressor.negotiate("*;q=0")).isNull();
+    }
+
+    @Test
+    void clampsQualities() {
+        assertThat(Compressor.negotiate("gzip;q=-1, deflate;q=0.2")).isEqualTo("deflate");
+        assertThat(Compressor.negotiate("gzip;q=0.9, deflate;q=5")).isEqualTo("deflate");
+        assertThat(Compressor.negotiate("gzip;q=NaN")).isNull();
+    }
+
+    @Test
+    void compressesOnceUntilFileChanges() throws Exception {
+        final Path file = directory.resolve("a.txt");
+        Files.writeString(file, "hello world\n".repeat(100));
+
+        final HTTPResponse variant = variant(file);
+        assertThat(variant.headers().get(Const.Headers.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(variant.headers().get(Const.Headers.ETAG)).isEqualTo("\"a-gzip\"");
+        assertThat(Integer.parseInt(variant.headers().get(Const.Headers.CONTENT_LENGTH))).isLessThan(1200);
+        assertThat(compressor.variant("/a.txt", "gzip", entry(file), identity(file))).isSameAs(variant);
+
+        Files.writeString(file, "hello again\n".repeat(200));
+        assertThat(compressor.variant("/a.txt", "gzip", entry(file), identity(file))).isNull();
+        assertThat(variant(file)).isNotSameAs(variant);
+    }
+
+    @Test
+    void servesIdentityWhenCompressionIsNotWorthIt() throws Exception {
+        final Path file = directory.resolve("random.txt");
+        final byte[] content = new byte[4096];
+        new Random(7).nextBytes(content);
+        Files.write(file, content);
+
+        final HTTPResponse identity = identity(file);
+        HTTPResponse variant;
+        while ((variant = compressor.variant("/random.txt", "gzip", entry(file), identity)) == null) {
+            Thread.sleep(10);
+        }
+        assertThat(variant).isSameAs(identity);
+    }
+
+    private HTTPResponse variant(final Path file) throws Exception {
+        HTTPResponse variant;
+        while ((variant = compressor.variant("/" + file.getFileName(), "gzip", entry(file), identity(file))) == null) {
+            Thread.sleep(10);
+        }
+        return variant;
+    }
+
+    private static HTTPResponse identity(final Path file) throws IOException {
+        return HTTPResponse.builder()
+            .statusCode("200")
+            .statusMessage("OK")
+            .headers(Map.of(Const.Headers.ETAG, "\"a\""))
+            .file(FileRegion.of(file))
+            .build();
+    }
+
+    private static PathIndex.Entry entry(final Path file) throws IOException {
+        return PathIndex.Entry.of(Files.readAttributes(file, BasicFileAttributes.class));
+    }
+}
@@ -0,0 +1,68 @@
+package httpnio.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryListingTest {
+
+    @TempDir
+    Path root;
+
+    @BeforeEach
+    void createTree() throws IOException {
+        for (final String file : List.of("a.txt", "b/c.txt", "b/d/e.txt", "b-f.txt", "g/h.txt")) {
+            Files.createDirectories(root.resolve(file).getParent());
+            Files.writeString(root.resolve(file), file);
+        }
+    }
+
+    @Test
+    void listsFilesInNameOrder() throws IOException {
+        assertThat(list("", "/", null, Integer.MAX_VALUE, DirectoryListing.MAX_DEPTH))
+            .containsExactly("/a.txt", "/b/c.txt", "/b/d/e.txt", "/b-f.txt", "/g/h.txt");
+        assertThat(list("", "/", null, Integer.MAX_VALUE, 1)).containsExactly("/a.txt", "/b-f.txt");
+        assertThat(list("", "/b/", null, Integer.MAX_VALUE, DirectoryListing.MAX_DEPTH)).containsExactly("/b/c.txt", "/b/d/e.txt");
+    }
+
+    @Test
+    void listsOnlyPathsStartingWithPrefix() throws IOException {
+        assertThat(list("", "/b", null, Integer.MAX_VALUE, DirectoryListing.MAX_DEPTH)).containsExactly("/b/c.txt", "/b/d/e.txt", "/b-f.txt");
+        assertThat(list("", "/b/d", null, Integer.MAX_VALUE, DirectoryListing.MAX_DEPTH)).containsExactly("/b/d/e.txt");
+        assertThat(list("", "/b", "/b/c.txt", Integer.MAX_VALUE, DirectoryListing.MAX_DEPTH)).containsExactly("/b/d/e.txt", "/b-f.txt");
+    }
+
+    @Test
+    void resumesAfterCursor() throws IOException {
+        final List<String> pages = new ArrayList<>();
+        String cursor = null;
+        List<String> page;
+        while (!(page = list("", "/", cursor, 2, DirectoryListing.MAX_DEPTH)).isEmpty()) {
+            pages.addAll(page);
+            cursor = page.get(page.size() - 1);
+        }
+
+        assertThat(pages).containsExactly("/a.txt", "/b/c.txt", "/b/d/e.txt", "/b-f.txt", "/g/h.txt");
+    }
+
+    private List<String> list(final String key, final String prefix, final String cursor, final int limit, final int depth) throws IOException {
+        final StringBuilder listing = new StringBuilder();
+        try (final DirectoryListing body = new DirectoryListing(root.resolve(key), key, prefix, cursor, limit, depth)) {
+            ByteBuffer chunk;
+            while ((chunk = body.next()) != null) {
+                listing.append(UTF_8.decode(chunk));
+            }
+        }
+        return listing.isEmpty() ? List.of() : List.of(listing.toString().split("\n"));
+    }
+}
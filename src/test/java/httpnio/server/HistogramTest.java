@@ -0,0 +1,33 @@
+package httpnio.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HistogramTest {
+
+    @Test
+    void countsSmallValuesExactly() {
+        final var histogram = new Histogram();
+        for (int i = 1; i <= 4; i++) {
+            histogram.record(i);
+        }
+
+        assertThat(histogram.count()).isEqualTo(4);
+        assertThat(histogram.percentile(50)).isEqualTo(2);
+        assertThat(histogram.percentile(100)).isEqualTo(4);
+        assertThat(histogram.mean()).isEqualTo(2.5);
+    }
+
+    @Test
+    void reportsPercentilesWithinBucketPrecision() {
+        final var histogram = new Histogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+
+        assertThat(histogram.percentile(50)).isBetween(5_000L, 5_625L);
+        assertThat(histogram.percentile(99)).isBetween(9_900L, 10_000L);
+        assertThat(histogram.max()).isEqualTo(10_000);
+    }
+}
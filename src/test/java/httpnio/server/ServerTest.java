@@ -0,0 +1,100 @@
+package httpnio.server;
+
+import httpnio.client.Client;
+import httpnio.common.ApplicationProtocol;
+import httpnio.common.HTTPMethod;
+import httpnio.common.HTTPRequest;
+import httpnio.common.TransportProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerTest {
+
+    @TempDir
+    Path directory;
+
+    private Server server;
+
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        Files.createDirectories(directory.resolve("sub"));
+        Files.writeString(directory.resolve("sub/a.txt"), "a");
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        server = new Server(new Server.Configuration(
+            TransportProtocol.Type.TCP,
+            ApplicationProtocol.Type.FILESERVER,
+            port,
+            false,
+            directory.toString(),
+            null,
+            Server.Mode.REACTOR,
+            0,
+            1,
+            0,
+            0,
+            0,
+            0,
+            0,
+            false,
+            false,
+            false,
+            0));
+        server.run();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void clientReadsListingEndedByConnectionClose() throws Exception {
+        final var request = HTTPRequest.builder()
+            .method(HTTPMethod.GET)
+            .url("http://localhost:" + port + "/sub/")
+            .build();
+
+        final var response = new Client(TransportProtocol.of(TransportProtocol.Type.TCP)).request(request);
+
+        assertThat(response.statusCode()).isEqualTo("200");
+        assertThat(response.text()).isEqualTo("/sub/a.txt\n");
+    }
+
+    @Test
+    void answersRejectedRequestInItsPipelineSlot() throws IOException {
+        final String responses = exchange("GET /sub/a.txt HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+            "GET /sub/a.txt HTTP/1.1\r\n\r\n" +
+            "GET /sub/a.txt HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+        assertThat(responses).startsWith("HTTP/1.1 200 OK\r\n");
+        assertThat(responses.indexOf("HTTP/1.1 400 BAD REQUEST\r\n")).isGreaterThan(0);
+        assertThat(responses.split("HTTP/1.1 ", -1).length - 1).isEqualTo(2);
+    }
+
+    /**
+     * @return everything the server sent back until it closed the connection
+     */
+    private String exchange(final String requests) throws IOException {
+        try (final Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(requests.getBytes(ISO_8859_1));
+            return new String(socket.getInputStream().readAllBytes(), ISO_8859_1);
+        }
+    }
+}
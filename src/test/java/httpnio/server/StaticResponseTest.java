@@ -0,0 +1,29 @@
+package httpnio.server;
+
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StaticResponseTest {
+
+    @Test
+    void appendsTailToEncodedResponse() {
+        final var response = StaticResponse.NOT_FOUND.response("/some/é.txt");
+
+        assertThat(response.statusCode()).isEqualTo("404");
+        assertThat(UTF_8.decode(response.encoded()).toString()).isEqualTo("HTTP/1.1 404 NOT FOUND\r\n" +
+            "Accept: */*\r\n" +
+            "Content-Length: 47\r\n" +
+            "\r\n" +
+            "Could not find the specified file: /some/é.txt");
+    }
+
+    @Test
+    void sharesResponseWithoutTail() {
+        final var response = StaticResponse.READ_ONLY.response();
+
+        assertThat(StaticResponse.READ_ONLY.response(null)).isSameAs(response);
+        assertThat(UTF_8.decode(response.encoded()).toString()).endsWith("Content-Length: 24\r\n\r\nThe archive is read-only");
+    }
+}